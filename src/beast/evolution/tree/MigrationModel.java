@@ -24,8 +24,6 @@ import beast.core.Loggable;
 import beast.core.parameter.BooleanParameter;
 import beast.core.parameter.RealParameter;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.List;
 import org.jblas.DoubleMatrix;
 import org.jblas.MatrixFunctions;
 
@@ -48,6 +46,18 @@ public class MigrationModel extends CalculationNode {
             "rateMatrixFlags",
             "Optional boolean parameter specifying which rates to use."
             + " (Default is to use all rates.)");
+
+    public Input<Integer> powerCacheSizeInput = new Input<>(
+            "uniformizationCacheSize",
+            "Maximum number of elements of powers of the uniformized "
+            + "transition matrix to cache.  (Default 10^7.)",
+            10000000);
+
+    public Input<Double> sparseThresholdInput = new Input<>(
+            "sparseThreshold",
+            "Fraction of non-zero off-diagonal rates below which sparse "
+            + "representations of the rate matrices are used.  (Default 0.25.)",
+            0.25);
     
     private RealParameter rateMatrix, popSizes;
     private BooleanParameter rateMatrixFlags;
@@ -56,14 +66,41 @@ public class MigrationModel extends CalculationNode {
     protected int nTypes;
     private DoubleMatrix Q, R;
     private DoubleMatrix Qsym, Rsym;
-    private List<DoubleMatrix> RpowN, RsymPowN;
-    private DoubleMatrix RpowMax, RsymPowMax;
-    private boolean RpowSteady, RsymPowSteady;
+    private UniformizedPowerCache RpowCache, RsymPowCache;
+    private RateMatrixEigenSystem QEigen, QsymEigen;
+    private SparseRateMatrix QSparse, RSparse, QsymSparse, RsymSparse;
+    private boolean useSparse;
+    private MigrationModelSnapshot snapshot;
+    private long snapshotVersion;
+
+    // Work arrays used when assembling rate matrices:
+    private double[] Qflat, QsymFlat;
+
+    // Derived quantities as they stood at the last call to store().  Each
+    // power cache has a second instance so that the stored one is never
+    // reset in place.
+    private double storedTotalPopSize;
+    private double storedMu, storedMuSym;
+    private DoubleMatrix storedQ, storedR, storedQsym, storedRsym;
+    private UniformizedPowerCache storedRpowCache, storedRsymPowCache;
+    private UniformizedPowerCache spareRpowCache, spareRsymPowCache;
+    private RateMatrixEigenSystem storedQEigen, storedQsymEigen;
+    private SparseRateMatrix storedQSparse, storedRSparse;
+    private SparseRateMatrix storedQsymSparse, storedRsymSparse;
+    private boolean storedUseSparse;
+    private MigrationModelSnapshot storedSnapshot;
+    private boolean storedRatesDirty, storedPopSizesDirty;
     
     protected boolean rateMatrixIsSquare, symmetricRateMatrix;
     
-    // Flag to indicate whether EV decompositions need updating.
-    private boolean dirty;
+    // Flags to indicate whether quantities derived from the rates (Q, R,
+    // power caches and eigendecompositions) or from the population sizes
+    // need updating.
+    private boolean ratesDirty, popSizesDirty;
+
+    // Record of which inputs changed during the current MCMC step, so that
+    // restore() need only invalidate the corresponding derived quantities.
+    private boolean ratesChangedThisStep, popSizesChangedThisStep;
 
     public MigrationModel() { }
 
@@ -103,12 +140,20 @@ public class MigrationModel extends CalculationNode {
                         + " migration rate matrix.");
         }
         
-        // Initialise caching array for powers of uniformized
-        // transition matrix:
-        RpowN = new ArrayList<>();
-        RsymPowN = new ArrayList<>();
+        Qflat = new double[nTypes*nTypes];
+        QsymFlat = new double[nTypes*nTypes];
+
+        // Initialise caches for powers of uniformized transition matrix:
+        RpowCache = new UniformizedPowerCache(nTypes, powerCacheSizeInput.get());
+        RsymPowCache = new UniformizedPowerCache(nTypes, powerCacheSizeInput.get());
+        spareRpowCache = new UniformizedPowerCache(nTypes, powerCacheSizeInput.get());
+        spareRsymPowCache = new UniformizedPowerCache(nTypes, powerCacheSizeInput.get());
         
-        dirty = true;
+        snapshot = new MigrationModelSnapshot(snapshotVersion, nTypes,
+                null, null, null, null, null, null);
+
+        ratesDirty = true;
+        popSizesDirty = true;
         updateMatrices();
     }
     
@@ -117,63 +162,130 @@ public class MigrationModel extends CalculationNode {
      * objects are consistent with current values held by inputs.
      */
     public void updateMatrices()  {
-        
-        if (!dirty)
+
+        if (popSizesDirty) {
+            popSizes = popSizesInput.get();
+
+            double[] N = new double[nTypes];
+            double[] invN = new double[nTypes];
+            double[] logN = new double[nTypes];
+
+            totalPopSize = 0.0;
+            for (int i = 0; i < popSizes.getDimension(); i++) {
+                N[i] = popSizes.getArrayValue(i);
+                invN[i] = 1.0/N[i];
+                logN[i] = Math.log(N[i]);
+                totalPopSize += N[i];
+            }
+            snapshot = snapshot.withPopSizes(++snapshotVersion, N, invN, logN);
+
+            popSizesDirty = false;
+        }
+
+        if (!ratesDirty)
             return;
 
-        popSizes = popSizesInput.get();
         rateMatrix = rateMatrixInput.get();
+        BooleanParameter flags = rateMatrixFlagsInput.get();
 
-        totalPopSize = 0.0;
-        for (int i = 0; i < popSizes.getDimension(); i++)
-            totalPopSize += popSizes.getArrayValue(i);
+        // Gather effective rates, consulting each BSSVS flag only once:
+        int nActive = 0;
+        for (int i = 0; i < nTypes; i++) {
+            for (int j = 0; j < nTypes; j++) {
+                double rate = 0.0;
+                if (i != j) {
+                    int offset = getArrayOffset(i, j);
+                    if (flags == null || flags.getValue(offset)) {
+                        rate = rateMatrix.getValue(offset);
+                        if (rate != 0.0)
+                            nActive += 1;
+                    }
+                }
+                Qflat[i*nTypes+j] = rate;
+            }
+        }
 
-        mu = 0.0;
-        muSym = 0.0;
-        Q = new DoubleMatrix(nTypes, nTypes);
-        Qsym = new DoubleMatrix(nTypes, nTypes);
+        useSparse = nActive < sparseThresholdInput.get()*nTypes*(nTypes-1);
+
+        double[] rates = Qflat.clone();
+        double[] logRates = new double[nTypes*nTypes];
+        for (int k = 0; k < rates.length; k++)
+            logRates[k] = Math.log(rates[k]);
+        double[] outRates = new double[nTypes];
 
         // Set up backward transition rate matrix Q and symmetrized backward
         // transition rate matrix Qsym:
+        mu = 0.0;
+        muSym = 0.0;
         for (int i = 0; i < nTypes; i++) {
-            Q.put(i,i, 0.0);
-            Qsym.put(i,i, 0.0);
+            double diag = 0.0, diagSym = 0.0;
             for (int j = 0; j < nTypes; j++) {
                 if (i != j) {
-                    Q.put(i, j, getRate(i, j));
-                    Q.put(i, i, Q.get(i, i) - Q.get(i, j));
-                    
-                    Qsym.put(i, j, 0.5*(getRate(i, j) + getRate(j, i)));
-                    Qsym.put(i, i, Qsym.get(i, i) - Qsym.get(i, j));
+                    QsymFlat[i*nTypes+j] = 0.5*(Qflat[i*nTypes+j] + Qflat[j*nTypes+i]);
+                    diag -= Qflat[i*nTypes+j];
+                    diagSym -= QsymFlat[i*nTypes+j];
                 }
             }
+            Qflat[i*nTypes+i] = diag;
+            QsymFlat[i*nTypes+i] = diagSym;
+            outRates[i] = -diag;
 
-            if (-Q.get(i, i) > mu)
-                mu = -Q.get(i, i);
-            
-            if (-Qsym.get(i,i) > muSym)
-                muSym = -Qsym.get(i, i);
+            if (-diag > mu)
+                mu = -diag;
+
+            if (-diagSym > muSym)
+                muSym = -diagSym;
         }
+        snapshot = snapshot.withRates(++snapshotVersion, rates, logRates, outRates);
+
+        QSparse = new SparseRateMatrix(Qflat, nTypes);
+        QsymSparse = new SparseRateMatrix(QsymFlat, nTypes);
 
         // Set up uniformized backward transition rate matrices R and Rsym:
-        R = Q.mul(1.0/mu).add(DoubleMatrix.eye(nTypes));
-        Rsym = Qsym.mul(1.0/muSym).add(DoubleMatrix.eye(nTypes));
-        
-        // Clear cached powers of R and Rsym and steady state flag:
-        RpowN.clear();
-        RsymPowN.clear();
-        
-        RpowSteady = false;
-        RsymPowSteady = false;
-        
-        // Power sequences initially contain R^0 = I
-        RpowN.add(DoubleMatrix.eye(nTypes));
-        RsymPowN.add(DoubleMatrix.eye(nTypes));
+        for (int i = 0; i < nTypes; i++) {
+            for (int j = 0; j < nTypes; j++) {
+                Qflat[i*nTypes+j] *= 1.0/mu;
+                QsymFlat[i*nTypes+j] *= 1.0/muSym;
+            }
+            Qflat[i*nTypes+i] += 1.0;
+            QsymFlat[i*nTypes+i] += 1.0;
+        }
+        RSparse = new SparseRateMatrix(Qflat, nTypes);
+        RsymSparse = new SparseRateMatrix(QsymFlat, nTypes);
+
+        // Dense matrices are only assembled up front when they are
+        // not mostly zeros, otherwise on demand:
+        if (useSparse) {
+            Q = null;
+            Qsym = null;
+            R = null;
+            Rsym = null;
+        } else {
+            Q = QSparse.toDense();
+            Qsym = QsymSparse.toDense();
+            R = RSparse.toDense();
+            Rsym = RsymSparse.toDense();
+        }
         
-        RpowMax = DoubleMatrix.eye(nTypes);
-        RsymPowMax = DoubleMatrix.eye(nTypes);
+        // Clear cached powers of R and Rsym, leaving any stored caches intact:
+        if (RpowCache == storedRpowCache) {
+            UniformizedPowerCache tmp = RpowCache;
+            RpowCache = spareRpowCache;
+            spareRpowCache = tmp;
+        }
+        if (RsymPowCache == storedRsymPowCache) {
+            UniformizedPowerCache tmp = RsymPowCache;
+            RsymPowCache = spareRsymPowCache;
+            spareRsymPowCache = tmp;
+        }
+        RpowCache.reset(RSparse, useSparse);
+        RsymPowCache.reset(RsymSparse, useSparse);
 
-        dirty = false;
+        // Eigendecompositions are computed on demand:
+        QEigen = null;
+        QsymEigen = null;
+
+        ratesDirty = false;
     }
 
     /**
@@ -255,7 +367,7 @@ public class MigrationModel extends CalculationNode {
         rateMatrix.setValue(getArrayOffset(i,j), rate);
 
         // Model is now dirty.
-        dirty = true;
+        ratesDirty = true;
     }
 
     /**
@@ -265,7 +377,7 @@ public class MigrationModel extends CalculationNode {
      * @param j
      * @return Offset (or -1 if i==j)
      */
-    protected int getArrayOffset(int i, int j) {
+    public int getArrayOffset(int i, int j) {
         
         if (i==j)
             throw new RuntimeException("Programmer error: requested migration "
@@ -306,7 +418,7 @@ public class MigrationModel extends CalculationNode {
      */
     public void setPopSize(int i, double newSize) {
         popSizes.setValue(i, newSize);
-        dirty = true;
+        popSizesDirty = true;
     }
 
     /**
@@ -329,111 +441,167 @@ public class MigrationModel extends CalculationNode {
     
     public DoubleMatrix getR(boolean symmetric) {
         updateMatrices();
-        if (symmetric)
+        if (symmetric) {
+            if (Rsym == null)
+                Rsym = RsymSparse.toDense();
             return Rsym;
-        else
+        } else {
+            if (R == null)
+                R = RSparse.toDense();
             return R;
+        }
     }
     
     public DoubleMatrix getQ(boolean symmetric) {
         updateMatrices();
-        if (symmetric)
+        if (symmetric) {
+            if (Qsym == null)
+                Qsym = QsymSparse.toDense();
             return Qsym;
-        else
+        } else {
+            if (Q == null)
+                Q = QSparse.toDense();
             return Q;
+        }
     }
-    
-    public DoubleMatrix getRpowN(int n, boolean symmetric) {
+
+    /**
+     * Obtain read-only snapshot of the current effective rates and
+     * population sizes for use in inner loops.  The snapshot is rebuilt
+     * at most once per model change.  Since this method may trigger that
+     * rebuild it must not be called concurrently, but the snapshot it
+     * returns may be read from any thread.
+     *
+     * @return model snapshot
+     */
+    public MigrationModelSnapshot getSnapshot() {
         updateMatrices();
-        
-        List <DoubleMatrix> matPowerList;
-        DoubleMatrix mat, matPowerMax;
-        if (symmetric) {
-            matPowerList = RsymPowN;
-            mat = Rsym;
-            matPowerMax = RsymPowMax;
-        } else {
-            matPowerList = RpowN;
-            mat = R;
-            matPowerMax = RpowMax;
-        }
-        
-        if (n>=matPowerList.size()) {
-                
-            // Steady state of matrix iteration already reached
-            if ((symmetric && RsymPowSteady) || (!symmetric && RpowSteady)) {
-                //System.out.println("Assuming R SS.");
-                return matPowerList.get(matPowerList.size()-1);
-            }
-                
-            int startN = matPowerList.size();
-            for (int i=startN; i<=n; i++) {
-                matPowerList.add(matPowerList.get(i-1).mmul(mat));
-                
-                matPowerMax.maxi(matPowerList.get(i));
-                    
-                // Occasionally check whether matrix iteration has reached steady state
-                if (i%10 == 0) {
-                    double maxDiff = 0.0;
-                    for (double el : matPowerList.get(i).sub(matPowerList.get(i-1)).toArray())
-                        maxDiff = Math.max(maxDiff, Math.abs(el));
-                        
-                    if (!(maxDiff>0)) {
-                        if (symmetric)
-                            RsymPowSteady = true;
-                        else
-                            RpowSteady = true;
-                        
-                        return matPowerList.get(i);
-                    }
-                }
-            }
-        }
-        return matPowerList.get(n);
+        return snapshot;
+    }
+
+    /**
+     * Obtain compressed sparse row form of Q or Qsym.  This is available
+     * whether or not the model has selected sparse mode, but is preferable
+     * to getQ() only when isSparse() is true.
+     *
+     * @param symmetric
+     * @return sparse rate matrix
+     */
+    public SparseRateMatrix getSparseQ(boolean symmetric) {
+        updateMatrices();
+        if (symmetric)
+            return QsymSparse;
+        else
+            return QSparse;
+    }
+
+    /**
+     * Obtain compressed sparse row form of R or Rsym.
+     *
+     * @param symmetric
+     * @return sparse uniformized transition matrix
+     */
+    public SparseRateMatrix getSparseR(boolean symmetric) {
+        updateMatrices();
+        if (symmetric)
+            return RsymSparse;
+        else
+            return RSparse;
+    }
+
+    /**
+     * @return true if the fraction of active migration rates is below the
+     * sparse threshold, in which case dense forms of Q and R are only
+     * assembled on request.
+     */
+    public boolean isSparse() {
+        updateMatrices();
+        return useSparse;
     }
     
     /**
-     * Return matrix containing upper bounds on elements from the powers
-     * of R if known.  Returns a matrix of ones if steady state has not yet
-     * been reached.
-     * 
+     * Obtain eigendecomposition of Q or Qsym, computing it if necessary.
+     *
      * @param symmetric
-     * @return Matrix of upper bounds.
+     * @return eigensystem
      */
-    public DoubleMatrix getRpowMax(boolean symmetric) {
-        
+    private RateMatrixEigenSystem getEigenSystem(boolean symmetric) {
+        updateMatrices();
+
         if (symmetric) {
-            if (RsymPowSteady)
-                return RsymPowMax;
-            else
-                return DoubleMatrix.ones(nTypes, nTypes);
+            if (QsymEigen == null)
+                QsymEigen = new RateMatrixEigenSystem(getQ(true), true);
+            return QsymEigen;
         } else {
-            if (RpowSteady)
-                return RpowMax;
-            else
-                return DoubleMatrix.ones(nTypes, nTypes);
+            if (QEigen == null)
+                QEigen = new RateMatrixEigenSystem(getQ(false), false);
+            return QEigen;
         }
     }
-    
-    
+
+    /**
+     * Obtain element of exp(QL), the probability of a lineage in deme
+     * typeStart being in deme typeEnd a time L further into the past.
+     * Uses the eigendecomposition of Q, computed once per model change,
+     * so that each call requires O(D) operations rather than a full matrix
+     * exponentiation.
+     *
+     * @param typeStart type at start (bottom) of branch
+     * @param typeEnd type at end (top) of branch
+     * @param L branch length
+     * @param symmetric use symmetrized rate matrix
+     * @return transition probability
+     */
+    public double getTransitionProb(int typeStart, int typeEnd, double L,
+            boolean symmetric) {
+        return getEigenSystem(symmetric).getTransitionProb(typeStart, typeEnd, L);
+    }
+
     /**
-     * Power above which R is known to be steady.
+     * Obtain transition probability matrix exp(QL) using the
+     * eigendecomposition of Q.
+     *
+     * @param L branch length
+     * @param symmetric use symmetrized rate matrix
+     * @return transition probability matrix
+     */
+    public DoubleMatrix getTransitionMatrix(double L, boolean symmetric) {
+        return getEigenSystem(symmetric).getTransitionMatrix(L);
+    }
+
+    /**
+     * Obtain element of a power of the uniformized transition matrix R
+     * (or Rsym).  Powers are cached separately for each end type as the
+     * column vectors R^n e_typeEnd, each costing a single matrix-vector
+     * product to compute.
+     *
+     * @param n power
+     * @param typeStart row index
+     * @param typeEnd column index
+     * @param symmetric
+     * @return element (typeStart, typeEnd) of R^n
+     */
+    public double getRpowN(int n, int typeStart, int typeEnd, boolean symmetric) {
+        updateMatrices();
+
+        if (symmetric)
+            return RsymPowCache.get(n, typeStart, typeEnd);
+        else
+            return RpowCache.get(n, typeStart, typeEnd);
+    }
+
+    /**
+     * Power above which column typeEnd of R^n is known to be steady.
      * 
+     * @param typeEnd column index
      * @param symmetric
-     * @return index of first known steady element.
+     * @return index of first known steady element, or -1 if unknown.
      */
-    public int RpowSteadyN(boolean symmetric) {
-        if (symmetric) {
-            if (RsymPowSteady)
-                return RsymPowN.size();
-            else
-                return -1;
-        } else {
-            if (RpowSteady)
-                return RpowN.size();
-            else
-                return -1;
-        }
+    public int RpowSteadyN(int typeEnd, boolean symmetric) {
+        if (symmetric)
+            return RsymPowCache.getSteadyN(typeEnd);
+        else
+            return RpowCache.getSteadyN(typeEnd);
     }
 
     /*
@@ -443,16 +611,114 @@ public class MigrationModel extends CalculationNode {
     @Override
     protected boolean requiresRecalculation() {
         // we only get here if something is dirty
-        dirty = true;
+        boolean popSizesChanged = popSizesInput.get().somethingIsDirty();
+        boolean ratesChanged = rateMatrixInput.get().somethingIsDirty()
+                || (rateMatrixFlagsInput.get() != null
+                && rateMatrixFlagsInput.get().somethingIsDirty());
+
+        // Be conservative if the change can't be attributed to an input:
+        if (!popSizesChanged && !ratesChanged) {
+            popSizesChanged = true;
+            ratesChanged = true;
+        }
+
+        if (popSizesChanged) {
+            popSizesDirty = true;
+            popSizesChangedThisStep = true;
+        }
+        if (ratesChanged) {
+            ratesDirty = true;
+            ratesChangedThisStep = true;
+        }
+
         return true;
     }
 
+    @Override
+    protected void store() {
+        // Derived matrices are never modified in place (dense forms
+        // assembled on demand are new objects), so storing them
+        // only requires copying references:
+        storedTotalPopSize = totalPopSize;
+        storedPopSizesDirty = popSizesDirty;
+        storedSnapshot = snapshot;
+
+        storedMu = mu;
+        storedMuSym = muSym;
+        storedQ = Q;
+        storedQsym = Qsym;
+        storedR = R;
+        storedRsym = Rsym;
+        storedRpowCache = RpowCache;
+        storedRsymPowCache = RsymPowCache;
+        storedQEigen = QEigen;
+        storedQsymEigen = QsymEigen;
+        storedQSparse = QSparse;
+        storedQsymSparse = QsymSparse;
+        storedRSparse = RSparse;
+        storedRsymSparse = RsymSparse;
+        storedUseSparse = useSparse;
+        storedRatesDirty = ratesDirty;
+
+        ratesChangedThisStep = false;
+        popSizesChangedThisStep = false;
+        super.store();
+    }
+
     @Override
     protected void restore() {
-        dirty = true;
+        // Quantities derived from inputs which were not changed during
+        // this step remain valid and may have been extended since store().
+        if (popSizesChangedThisStep) {
+            totalPopSize = storedTotalPopSize;
+            popSizesDirty = storedPopSizesDirty;
+        }
+
+        if (popSizesChangedThisStep || ratesChangedThisStep) {
+            // The stored snapshot is only as up to date as it was when
+            // stored, even with respect to the input which didn't change.
+            snapshot = storedSnapshot;
+            popSizesDirty |= storedPopSizesDirty;
+            ratesDirty |= storedRatesDirty;
+        }
+
+        if (ratesChangedThisStep) {
+            mu = storedMu;
+            muSym = storedMuSym;
+            Q = storedQ;
+            Qsym = storedQsym;
+            R = storedR;
+            Rsym = storedRsym;
+            if (RpowCache != storedRpowCache) {
+                spareRpowCache = RpowCache;
+                RpowCache = storedRpowCache;
+            }
+            if (RsymPowCache != storedRsymPowCache) {
+                spareRsymPowCache = RsymPowCache;
+                RsymPowCache = storedRsymPowCache;
+            }
+            QEigen = storedQEigen;
+            QsymEigen = storedQsymEigen;
+            QSparse = storedQSparse;
+            QsymSparse = storedQsymSparse;
+            RSparse = storedRSparse;
+            RsymSparse = storedRsymSparse;
+            useSparse = storedUseSparse;
+            ratesDirty = storedRatesDirty;
+        }
+
+        ratesChangedThisStep = false;
+        popSizesChangedThisStep = false;
         super.restore();
     }
 
+    @Override
+    protected void accept() {
+        ratesChangedThisStep = false;
+        popSizesChangedThisStep = false;
+        super.accept();
+    }
+
     /**
      * Main for debugging.
      *
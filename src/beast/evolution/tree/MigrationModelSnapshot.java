@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+/**
+ * Read-only snapshot of the parameters of a migration model, laid out for
+ * use in inner loops.  Effective migration rates (zero where switched off
+ * by BSSVS flags) and their logarithms are held in flat row-major arrays,
+ * alongside the total outgoing rate of each deme and the population sizes,
+ * their reciprocals and logarithms.  A new snapshot with a new version
+ * number is created whenever the model changes, so a snapshot may safely
+ * be shared between threads and held across calls.
+ *
+ * @author agent
+ */
+public final class MigrationModelSnapshot {
+
+    private final long version;
+    private final int nTypes;
+
+    private final double[] rates, logRates, outRates;
+    private final double[] popSizes, invPopSizes, logPopSizes;
+
+    /**
+     * Create snapshot.  Arrays are not copied, so must not be modified
+     * after construction.  Arrays may be shared between snapshots.
+     *
+     * @param version version number of snapshot
+     * @param nTypes number of demes
+     * @param rates row-major array of effective rates, zero on diagonal
+     * @param logRates logarithms of effective rates
+     * @param outRates total rate of migration out of each deme
+     * @param popSizes deme population sizes
+     * @param invPopSizes reciprocals of population sizes
+     * @param logPopSizes logarithms of population sizes
+     */
+    MigrationModelSnapshot(long version, int nTypes,
+            double[] rates, double[] logRates, double[] outRates,
+            double[] popSizes, double[] invPopSizes, double[] logPopSizes) {
+        this.version = version;
+        this.nTypes = nTypes;
+        this.rates = rates;
+        this.logRates = logRates;
+        this.outRates = outRates;
+        this.popSizes = popSizes;
+        this.invPopSizes = invPopSizes;
+        this.logPopSizes = logPopSizes;
+    }
+
+    /**
+     * Create snapshot sharing rates with this one.
+     *
+     * @param version version number of new snapshot
+     * @param popSizes deme population sizes
+     * @param invPopSizes reciprocals of population sizes
+     * @param logPopSizes logarithms of population sizes
+     * @return new snapshot
+     */
+    MigrationModelSnapshot withPopSizes(long version, double[] popSizes,
+            double[] invPopSizes, double[] logPopSizes) {
+        return new MigrationModelSnapshot(version, nTypes,
+                rates, logRates, outRates,
+                popSizes, invPopSizes, logPopSizes);
+    }
+
+    /**
+     * Create snapshot sharing population sizes with this one.
+     *
+     * @param version version number of new snapshot
+     * @param rates row-major array of effective rates, zero on diagonal
+     * @param logRates logarithms of effective rates
+     * @param outRates total rate of migration out of each deme
+     * @return new snapshot
+     */
+    MigrationModelSnapshot withRates(long version, double[] rates,
+            double[] logRates, double[] outRates) {
+        return new MigrationModelSnapshot(version, nTypes,
+                rates, logRates, outRates,
+                popSizes, invPopSizes, logPopSizes);
+    }
+
+    /**
+     * @return version number, distinct for each snapshot of a given model
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return number of demes
+     */
+    public int getNTypes() {
+        return nTypes;
+    }
+
+    /**
+     * @param i source deme
+     * @param j destination deme
+     * @return effective rate of migration from i to j, zero if i==j
+     */
+    public double getRate(int i, int j) {
+        return rates[i*nTypes + j];
+    }
+
+    /**
+     * @param i source deme
+     * @param j destination deme
+     * @return logarithm of effective migration rate
+     */
+    public double getLogRate(int i, int j) {
+        return logRates[i*nTypes + j];
+    }
+
+    /**
+     * @param i deme
+     * @return total rate of migration out of deme i
+     */
+    public double getOutRate(int i) {
+        return outRates[i];
+    }
+
+    /**
+     * @param i deme
+     * @return effective population size of deme i
+     */
+    public double getPopSize(int i) {
+        return popSizes[i];
+    }
+
+    /**
+     * @param i deme
+     * @return reciprocal of effective population size of deme i
+     */
+    public double getInvPopSize(int i) {
+        return invPopSizes[i];
+    }
+
+    /**
+     * @param i deme
+     * @return logarithm of effective population size of deme i
+     */
+    public double getLogPopSize(int i) {
+        return logPopSizes[i];
+    }
+}
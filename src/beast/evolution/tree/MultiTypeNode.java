@@ -17,8 +17,7 @@
 package beast.evolution.tree;
 
 import beast.core.Description;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  *
@@ -27,12 +26,22 @@ import java.util.List;
 @Description("A node in a multi-type phylogenetic tree.")
 public class MultiTypeNode extends Node {
 
-    // Type metadata:
+    private static final int[] NO_TYPES = new int[0];
+    private static final double[] NO_TIMES = new double[0];
+
+    // Type metadata.  Only the first nTypeChanges elements of the change
+    // arrays are meaningful; the arrays grow as required and are never
+    // shrunk, so that storing and restoring the tree produces no garbage.
     int nTypeChanges = 0;
-    List<Integer> changeTypes = new ArrayList<Integer>();
-    List<Double> changeTimes = new ArrayList<Double>();
+    int[] changeTypes = NO_TYPES;
+    double[] changeTimes = NO_TIMES;
     int nodeType = 0;
 
+    // Set whenever the type metadata above is modified.  Kept separate from
+    // Node.isDirty so that retyping a branch doesn't force tree likelihoods
+    // to recompute partials.  Cleared by MultiTypeTree.setEverythingDirty().
+    boolean typingDirty = false;
+
     /**
      * Retrieve the total number of changes on the branch above this node.
      *
@@ -50,7 +59,7 @@ public class MultiTypeNode extends Node {
      * @return change type
      */
     public int getChangeType(int idx) {
-        return changeTypes.get(idx);
+        return changeTypes[idx];
     }
 
     /**
@@ -61,7 +70,7 @@ public class MultiTypeNode extends Node {
      * @return time of change
      */
     public double getChangeTime(int idx) {
-        return changeTimes.get(idx);
+        return changeTimes[idx];
     }
 
     /**
@@ -71,7 +80,7 @@ public class MultiTypeNode extends Node {
      */
     public int getFinalType() {
         if (nTypeChanges>0)
-            return changeTypes.get(nTypeChanges-1);
+            return changeTypes[nTypeChanges-1];
         else
             return nodeType;
     }
@@ -84,7 +93,7 @@ public class MultiTypeNode extends Node {
      */
     public double getFinalChangeTime() {
         if (nTypeChanges>0)
-            return changeTimes.get(nTypeChanges-1);
+            return changeTimes[nTypeChanges-1];
         else
             return getHeight();
     }
@@ -99,6 +108,16 @@ public class MultiTypeNode extends Node {
         return nodeType;
     }
 
+    /**
+     * Determine whether the node type or the type changes on the branch
+     * above this node have been modified since the tree was last cleaned.
+     *
+     * @return true if typing is dirty
+     */
+    public boolean isTypingDirty() {
+        return typingDirty;
+    }
+
     /**
      * Sets type of node.
      *
@@ -106,6 +125,8 @@ public class MultiTypeNode extends Node {
      */
     public void setNodeType(int nodeType) {
         startEditing();
+        typingDirty = true;
+        markEdited();
         this.nodeType = nodeType;
     }
 
@@ -117,9 +138,13 @@ public class MultiTypeNode extends Node {
      */
     public void addChange(int newType, double time) {
         startEditing();
-        changeTypes.add(newType);
-        changeTimes.add(time);
+        typingDirty = true;
+        markEdited();
+        ensureChangeCapacity(nTypeChanges+1);
+        changeTypes[nTypeChanges] = newType;
+        changeTimes[nTypeChanges] = time;
         nTypeChanges += 1;
+        changeCountModified();
     }
 
     /**
@@ -127,9 +152,10 @@ public class MultiTypeNode extends Node {
      */
     public void clearChanges() {
         startEditing();
-        changeTypes.clear();
-        changeTimes.clear();
+        typingDirty = true;
+        markEdited();
         nTypeChanges = 0;
+        changeCountModified();
     }
 
     /**
@@ -140,7 +166,9 @@ public class MultiTypeNode extends Node {
      */
     public void setChangeTime(int idx, double newTime) {
         startEditing();
-        changeTimes.set(idx, newTime);
+        typingDirty = true;
+        markEdited();
+        changeTimes[idx] = newTime;
     }
 
     /**
@@ -151,7 +179,9 @@ public class MultiTypeNode extends Node {
      */
     public void setChangeType(int idx, int newType) {
         startEditing();
-        changeTypes.set(idx, newType);
+        typingDirty = true;
+        markEdited();
+        changeTypes[idx] = newType;
     }
 
     /**
@@ -162,12 +192,12 @@ public class MultiTypeNode extends Node {
      */
     public void truncateChanges(int newNChanges) {
         startEditing();
+        typingDirty = true;
+        markEdited();
 
-        while (nTypeChanges>newNChanges) {
-            changeTypes.remove(nTypeChanges-1);
-            changeTimes.remove(nTypeChanges-1);
-            nTypeChanges -= 1;
-        }
+        if (nTypeChanges>newNChanges)
+            nTypeChanges = Math.max(newNChanges, 0);
+        changeCountModified();
     }
 
     /**
@@ -180,13 +210,19 @@ public class MultiTypeNode extends Node {
      */
     public void insertChange(int idx, int newType, double newTime) {
         startEditing();
+        typingDirty = true;
+        markEdited();
 
         if (idx>nTypeChanges)
             throw new IllegalArgumentException("Index to insertChange() out of range.");
 
-        changeTimes.add(idx, newTime);
-        changeTypes.add(idx, newType);
+        ensureChangeCapacity(nTypeChanges+1);
+        System.arraycopy(changeTimes, idx, changeTimes, idx+1, nTypeChanges-idx);
+        System.arraycopy(changeTypes, idx, changeTypes, idx+1, nTypeChanges-idx);
+        changeTimes[idx] = newTime;
+        changeTypes[idx] = newType;
         nTypeChanges += 1;
+        changeCountModified();
     }
 
     /**
@@ -196,16 +232,131 @@ public class MultiTypeNode extends Node {
      */
     public void removeChange(int idx) {
         startEditing();
+        typingDirty = true;
+        markEdited();
 
         if (idx>=nTypeChanges)
             throw new IllegalArgumentException("Index to removeChange() out of range.");
 
-        changeTimes.remove(idx);
-        changeTypes.remove(idx);
+        System.arraycopy(changeTimes, idx+1, changeTimes, idx, nTypeChanges-idx-1);
+        System.arraycopy(changeTypes, idx+1, changeTypes, idx, nTypeChanges-idx-1);
         nTypeChanges -= 1;
-
+        changeCountModified();
     }
     
+    /**
+     * Ensure change arrays can hold at least the given number of changes.
+     *
+     * @param capacity required number of changes
+     */
+    private void ensureChangeCapacity(int capacity) {
+        if (capacity<=changeTimes.length)
+            return;
+
+        int newLength = Math.max(capacity, Math.max(4, 2*changeTimes.length));
+        changeTimes = Arrays.copyOf(changeTimes, newLength);
+        changeTypes = Arrays.copyOf(changeTypes, newLength);
+    }
+
+    /**
+     * Replace type changes on branch above this node with copies of those
+     * on the branch above another node.  Used when copying, storing and
+     * restoring trees, so does not mark the node as edited.
+     *
+     * @param src node from which to copy changes
+     */
+    void copyChangesFrom(MultiTypeNode src) {
+        ensureChangeCapacity(src.nTypeChanges);
+        System.arraycopy(src.changeTimes, 0, changeTimes, 0, src.nTypeChanges);
+        System.arraycopy(src.changeTypes, 0, changeTypes, 0, src.nTypeChanges);
+        nTypeChanges = src.nTypeChanges;
+    }
+
+    /**
+     * Inform the owning tree that this node now differs from its stored
+     * copy, so that the next call to store() copies it.
+     */
+    private void markEdited() {
+        if (m_tree instanceof MultiTypeTree)
+            ((MultiTypeTree)m_tree).markNodeEdited(this);
+    }
+
+    /**
+     * Inform the owning tree that the number of changes on the branch
+     * above this node has been modified, so that its change index can be
+     * updated.
+     */
+    private void changeCountModified() {
+        if (m_tree instanceof MultiTypeTree)
+            ((MultiTypeTree)m_tree).changeCountModified(this);
+    }
+
+    /*
+     * Overrides of Node modifiers which record the edit with the tree.  Not
+     * all of these call startEditing(), so we can't simply hook that.
+     */
+
+    @Override
+    public void setHeight(double height) {
+        super.setHeight(height);
+        markEdited();
+    }
+
+    @Override
+    public void setParent(Node parent) {
+        super.setParent(parent);
+        markEdited();
+    }
+
+    @Override
+    public void setLeft(Node leftChild) {
+        super.setLeft(leftChild);
+        markEdited();
+    }
+
+    @Override
+    public void setRight(Node rightChild) {
+        super.setRight(rightChild);
+        markEdited();
+    }
+
+    @Override
+    public void addChild(Node child) {
+        super.addChild(child);
+        markEdited();
+        if (child instanceof MultiTypeNode)
+            ((MultiTypeNode)child).markEdited();
+    }
+
+    @Override
+    public void removeChild(Node child) {
+        super.removeChild(child);
+        markEdited();
+    }
+
+    @Override
+    public void makeDirty(int nDirty) {
+        super.makeDirty(nDirty);
+        if (nDirty != Tree.IS_CLEAN)
+            markEdited();
+    }
+
+    /**
+     * Replace type changes on branch above this node with those in the
+     * given arrays.  Used when restoring tree state, so does not mark the
+     * node as edited.
+     *
+     * @param times change times
+     * @param types change types
+     * @param count number of changes to take from arrays
+     */
+    void setChanges(double[] times, int[] types, int count) {
+        ensureChangeCapacity(count);
+        System.arraycopy(times, 0, changeTimes, 0, count);
+        System.arraycopy(types, 0, changeTypes, 0, count);
+        nTypeChanges = count;
+    }
+
     /**
      * @return shallow copy of node
      */
@@ -215,9 +366,7 @@ public class MultiTypeNode extends Node {
         node.parent = parent;        
         node.children.addAll(children);
 
-        node.nTypeChanges = nTypeChanges;
-        node.changeTimes.addAll(changeTimes);
-        node.changeTypes.addAll(changeTypes);
+        node.copyChangesFrom(this);
         node.nodeType = nodeType;
                 
         node.labelNr = labelNr;
@@ -245,9 +394,7 @@ public class MultiTypeNode extends Node {
         node.metaDataString = metaDataString;
         node.parent = null;
         node.ID = ID;
-        node.nTypeChanges = nTypeChanges;
-        node.changeTimes.addAll(changeTimes);
-        node.changeTypes.addAll(changeTypes);
+        node.copyChangesFrom(this);
         node.nodeType = nodeType;
         if (getLeft()!=null) {
             node.setLeft(getLeft().copy());
@@ -274,11 +421,7 @@ public class MultiTypeNode extends Node {
         ID = node.getID();
         
         MultiTypeNode mtNode = (MultiTypeNode)node;
-        nTypeChanges = mtNode.nTypeChanges;
-        changeTimes.clear();
-        changeTimes.addAll(mtNode.changeTimes);
-        changeTypes.clear();
-        changeTypes.addAll(mtNode.changeTypes);
+        copyChangesFrom(mtNode);
         nodeType = mtNode.nodeType;
         
         if (node.getLeft()!=null) {
@@ -22,16 +22,25 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.core.StateNode;
 import beast.core.StateNodeInitialiser;
-import beast.util.TreeParser;
 import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  *
@@ -59,6 +68,16 @@ public class MultiTypeTree extends Tree {
                     "from the sampled taxa.",
             new ArrayList<>());
 
+    public Input<Boolean> binaryStateInput = new Input<>(
+            "binaryState",
+            "Write tree to state file using compact binary encoding rather "
+                    + "than typed Newick. (Default false.)", false);
+
+    public Input<Boolean> compressStateInput = new Input<>(
+            "compressState",
+            "Compress binary state encoding.  Ignored unless binaryState "
+                    + "is true. (Default true.)", true);
+
     /*
      * Non-input fields:
      */
@@ -67,6 +86,36 @@ public class MultiTypeTree extends Tree {
     
     protected List <String> typeList;
 
+    // Numbers of nodes edited since the last call to store(), and so out
+    // of step with their stored copies.  When storeAllNodes is set the
+    // list is ignored and every node is copied.
+    private boolean[] nodeEditedSinceStore;
+    private int[] editedNodeNrs;
+    private int nEditedNodes;
+    private boolean storeAllNodes = true;
+
+    // Change index: per-node change counts as last recorded, a Fenwick
+    // (binary indexed) tree holding their prefix sums in node number
+    // order, and their total.  Changes above the root are indexed like any
+    // other but excluded when the index is queried.
+    private int[] indexedChangeCounts;
+    private int[] changeCountTree;
+    private int totalIndexedChanges;
+
+    // Time-ordered event index, created on first use, together with the
+    // numbers of nodes whose events it does not yet reflect.
+    private MultiTypeTreeEventIndex eventIndex;
+    private boolean[] nodeEventsDirty;
+    private int[] eventDirtyNodeNrs;
+    private int nEventDirtyNodes;
+    private boolean eventIndexNeedsRebuild = true;
+
+    // Scratch storage reused by the typed Newick writer.
+    private StringBuilder newickBuffer;
+    private int[] newickMinLeafNrs, newickChangeNrOffsets;
+    private char[] newickChunk;
+    private static final int NEWICK_CHUNK_SIZE = 4096;
+
     public MultiTypeTree() { };
     
     public MultiTypeTree(Node rootNode) {
@@ -311,6 +360,245 @@ public class MultiTypeTree extends Tree {
         m_storedNodes = new MultiTypeNode[nodeCount];
         Node copy = root.copy();
         listNodes((MultiTypeNode)copy, (MultiTypeNode[])m_storedNodes);
+
+        // Stored nodes are now a fresh copy of the current nodes.
+        nodeEditedSinceStore = new boolean[nodeCount];
+        editedNodeNrs = new int[nodeCount];
+        nEditedNodes = 0;
+        storeAllNodes = false;
+
+        rebuildChangeIndex();
+
+        nodeEventsDirty = new boolean[nodeCount];
+        eventDirtyNodeNrs = new int[nodeCount];
+        nEventDirtyNodes = 0;
+        eventIndexNeedsRebuild = true;
+    }
+
+    /**
+     * Determine whether node belongs to the current (as opposed to the
+     * stored) node array.
+     *
+     * @param node node to check
+     * @return true if node is current
+     */
+    private boolean isCurrentNode(Node node) {
+        if (m_nodes == null)
+            return false;
+
+        int nr = node.getNr();
+        return nr>=0 && nr<m_nodes.length && m_nodes[nr] == node;
+    }
+
+    /**
+     * Record that the given node has been modified since the last call to
+     * store().  Called by MultiTypeNode whenever one of its fields changes.
+     * Edits to nodes not (or no longer) belonging to the current node array
+     * are ignored.
+     *
+     * @param node edited node
+     */
+    void markNodeEdited(Node node) {
+        if (!isCurrentNode(node))
+            return;
+
+        int nr = node.getNr();
+        if (!storeAllNodes && !nodeEditedSinceStore[nr]) {
+            nodeEditedSinceStore[nr] = true;
+            editedNodeNrs[nEditedNodes++] = nr;
+        }
+
+        markNodeEventsDirty(nr);
+    }
+
+    /**
+     * Record that the events belonging to the given node number may no
+     * longer be reflected by the event index.
+     *
+     * @param nr node number
+     */
+    private void markNodeEventsDirty(int nr) {
+        if (eventIndex == null || eventIndexNeedsRebuild)
+            return;
+
+        if (!nodeEventsDirty[nr]) {
+            nodeEventsDirty[nr] = true;
+            eventDirtyNodeNrs[nEventDirtyNodes++] = nr;
+        }
+    }
+
+    /**
+     * Obtain time-ordered index of the sampling, coalescence and type change
+     * events on this tree.  The index is updated incrementally: only the
+     * events of nodes edited since the last call are replaced.
+     *
+     * @return up-to-date event index
+     */
+    public MultiTypeTreeEventIndex getEventIndex() {
+        if (eventIndex == null || eventIndexNeedsRebuild) {
+            eventIndex = new MultiTypeTreeEventIndex(getNTypes(), nodeCount);
+            for (int nr=0; nr<nodeCount; nr++)
+                eventIndex.setNodeEvents((MultiTypeNode)m_nodes[nr]);
+
+            eventIndexNeedsRebuild = false;
+        } else {
+            for (int k=0; k<nEventDirtyNodes; k++)
+                eventIndex.setNodeEvents((MultiTypeNode)m_nodes[eventDirtyNodeNrs[k]]);
+        }
+
+        for (int k=0; k<nEventDirtyNodes; k++)
+            nodeEventsDirty[eventDirtyNodeNrs[k]] = false;
+        nEventDirtyNodes = 0;
+
+        return eventIndex;
+    }
+
+    /**
+     * Clear record of edited nodes.
+     */
+    private void clearEditedNodes() {
+        for (int k=0; k<nEditedNodes; k++)
+            nodeEditedSinceStore[editedNodeNrs[k]] = false;
+        nEditedNodes = 0;
+        storeAllNodes = false;
+    }
+
+    @Override
+    public void setRoot(Node root) {
+        Node oldLastNode = m_nodes != null && m_nodes.length>0
+                ? m_nodes[m_nodes.length-1]
+                : null;
+
+        super.setRoot(root);
+
+        // Tree.setRoot() may swap the numbers of the new root and the last
+        // node without going through the node modifiers.
+        markNodeEdited(root);
+        if (oldLastNode != null)
+            markNodeEdited(oldLastNode);
+
+        if (changeCountTree != null && m_nodes.length == indexedChangeCounts.length) {
+            updateChangeIndex(root.getNr());
+            if (oldLastNode != null)
+                updateChangeIndex(oldLastNode.getNr());
+        }
+    }
+
+    /**
+     * Rebuild change index from scratch in O(n).
+     */
+    private void rebuildChangeIndex() {
+        int n = m_nodes.length;
+        indexedChangeCounts = new int[n];
+        changeCountTree = new int[n+1];
+        totalIndexedChanges = 0;
+
+        for (int i=0; i<n; i++) {
+            indexedChangeCounts[i] = ((MultiTypeNode)m_nodes[i]).getChangeCount();
+            changeCountTree[i+1] = indexedChangeCounts[i];
+            totalIndexedChanges += indexedChangeCounts[i];
+        }
+
+        for (int i=1; i<=n; i++) {
+            int j = i + (i & -i);
+            if (j<=n)
+                changeCountTree[j] += changeCountTree[i];
+        }
+    }
+
+    /**
+     * Bring change index entry for given node number into line with the
+     * change count of the current node having that number.
+     *
+     * @param nr node number
+     */
+    private void updateChangeIndex(int nr) {
+        int delta = ((MultiTypeNode)m_nodes[nr]).getChangeCount()
+                - indexedChangeCounts[nr];
+        if (delta == 0)
+            return;
+
+        indexedChangeCounts[nr] += delta;
+        totalIndexedChanges += delta;
+        for (int i=nr+1; i<changeCountTree.length; i += i & -i)
+            changeCountTree[i] += delta;
+    }
+
+    /**
+     * Called by MultiTypeNode after the number of changes on the branch
+     * above node has been modified.
+     *
+     * @param node node whose change count has been modified
+     */
+    void changeCountModified(Node node) {
+        if (changeCountTree != null && isCurrentNode(node))
+            updateChangeIndex(node.getNr());
+    }
+
+    /**
+     * @param nr node number
+     * @return number of changes on branches above nodes numbered below nr,
+     * including any above the root.
+     */
+    private int getIndexedChangesBefore(int nr) {
+        int sum = 0;
+        for (int i=nr; i>0; i -= i & -i)
+            sum += changeCountTree[i];
+        return sum;
+    }
+
+    /**
+     * Convert change number (which excludes changes above the root) to
+     * position in change index (which includes them).
+     *
+     * @param changeNr change number
+     * @return index position
+     */
+    private int getIndexPosition(int changeNr) {
+        if (changeNr<0 || changeNr>=getTotalNumberOfChanges())
+            throw new IllegalArgumentException("Change number out of range.");
+
+        int rootNr = root.getNr();
+        if (changeNr<getIndexedChangesBefore(rootNr))
+            return changeNr;
+        else
+            return changeNr + indexedChangeCounts[rootNr];
+    }
+
+    /**
+     * Obtain node below the branch on which a given change lies.  Changes
+     * are numbered consecutively along branches taken in node number order,
+     * skipping the root.  O(log n) in the number of nodes.
+     *
+     * @param changeNr change number, from 0 to getTotalNumberOfChanges()-1
+     * @return node below branch containing change
+     */
+    public MultiTypeNode getChangeNode(int changeNr) {
+        int remaining = getIndexPosition(changeNr);
+
+        // Binary search for the node whose change range contains the
+        // position, descending the Fenwick tree.
+        int nr = 0;
+        for (int step=Integer.highestOneBit(m_nodes.length); step>0; step >>= 1) {
+            if (nr+step<changeCountTree.length && changeCountTree[nr+step]<=remaining) {
+                nr += step;
+                remaining -= changeCountTree[nr];
+            }
+        }
+
+        return (MultiTypeNode)m_nodes[nr];
+    }
+
+    /**
+     * Obtain index of a given change on the branch returned by
+     * getChangeNode().  O(log n) in the number of nodes.
+     *
+     * @param changeNr change number, from 0 to getTotalNumberOfChanges()-1
+     * @return index of change on its branch
+     */
+    public int getChangeIndex(int changeNr) {
+        MultiTypeNode node = getChangeNode(changeNr);
+        return getIndexPosition(changeNr) - getIndexedChangesBefore(node.getNr());
     }
 
     /**
@@ -391,8 +679,6 @@ public class MultiTypeTree extends Tree {
         
         MultiTypeNode mtRoot = (MultiTypeNode)root;
         mtRoot.nodeType = ((MultiTypeNode)(otherNodes[iRoot])).nodeType;
-        mtRoot.changeTimes.clear();
-        mtRoot.changeTypes.clear();
         mtRoot.nTypeChanges = 0;
         
         if (otherNodes[iRoot].getLeft() != null) {
@@ -406,6 +692,11 @@ public class MultiTypeTree extends Tree {
             root.setRight(null);
         }
         assignFromFragileHelper(iRoot + 1, nodeCount, otherNodes);
+
+        // Fields were assigned directly, so edits weren't recorded.
+        storeAllNodes = true;
+        rebuildChangeIndex();
+        eventIndexNeedsRebuild = true;
     }
 
     /**
@@ -418,11 +709,7 @@ public class MultiTypeTree extends Tree {
             sink.height = src.height;
             sink.parent = m_nodes[src.parent.getNr()];
             
-            sink.nTypeChanges = src.nTypeChanges;
-            sink.changeTimes.clear();
-            sink.changeTimes.addAll(src.changeTimes);
-            sink.changeTypes.clear();
-            sink.changeTypes.addAll(src.changeTypes);
+            sink.copyChangesFrom(src);
             sink.nodeType = src.nodeType;
             
             if (src.getLeft() != null) {
@@ -686,6 +973,28 @@ public class MultiTypeTree extends Tree {
         
     }
     
+    /**
+     * Initialise types and tree topology directly from a typed Newick
+     * string in which type changes are marked by single-child nodes with
+     * type metadata.  Equivalent to parsing the string with TreeParser
+     * (singlechild=true, adjustTipHeights=false) and passing the result to
+     * initFromFlatTree(), but builds the multi-type nodes in a single pass.
+     *
+     * @param newick typed Newick string
+     * @param offset amount subtracted from leaf labels to give leaf numbers
+     * @throws java.lang.Exception
+     */
+    public void initFromTypedNewick(String newick, int offset) throws Exception {
+        MultiTypeNode newRoot = new TypedNewickParser(this, newick, offset).parse();
+
+        // Number internal nodes:
+        numberInternalNodes(newRoot, newRoot.getLeafNodeCount());
+
+        // Assign tree topology:
+        assignFromWithoutID(new MultiTypeTree(newRoot));
+        initArrays();
+    }
+
     /**
      * Helper method used by initFromFlattenedTree to assign sensible node numbers
      * to each internal node.  This is a post-order traversal, meaning the
@@ -709,21 +1018,13 @@ public class MultiTypeTree extends Tree {
     }
     
     /**
-     * Obtain total number of type changes along nodes on tree.
+     * Obtain total number of type changes along nodes on tree.  Read from
+     * the change index, so O(1).
      * 
      * @return total change count
      */
     public int getTotalNumberOfChanges() {
-        int count = 0;        
-
-        for (Node node : m_nodes) {
-            if (node.isRoot())
-                continue;
-            
-            count += ((MultiTypeNode)node).getChangeCount();
-        }
-        
-        return count;
+        return totalIndexedChanges - indexedChangeCounts[root.getNr()];
     }
 
     /**
@@ -739,59 +1040,252 @@ public class MultiTypeTree extends Tree {
         // Behaves differently if writing a state file
         StackTraceElement[] ste = Thread.currentThread().getStackTrace();
         if (ste[2].getMethodName().equals("toXML")) {            
+            if (binaryStateInput.get()) {
+                try {
+                    return getBinaryState(compressStateInput.get());
+                } catch (IOException ex) {
+                    throw new RuntimeException("Error encoding binary tree state.", ex);
+                }
+            }
+
             // Use toShortNewick to generate Newick string without taxon labels
             String string = getFlattenedTree(false).getRoot().toShortNewick(true);
             
             // Sanitize ampersands if this is destined for a state file.
             return string.replaceAll("&", "&amp;");
         } else{
-            return getFlattenedTree(true).getRoot().toSortedNewick(new int[1], true);
+            return getTypedNewick().toString();
+        }
+    }
+
+    /**
+     * Write sorted typed Newick representation of this tree into a reused
+     * buffer.  The result is identical to that of
+     * getFlattenedTree(true).getRoot().toSortedNewick(new int[1], true),
+     * but is produced directly from the multi-type nodes without
+     * constructing the flattened tree.  Type changes appear as single-child
+     * nodes numbered as they would be in the flattened tree.
+     *
+     * @return buffer containing Newick string, valid until next call
+     */
+    public CharSequence getTypedNewick() {
+        return getTypedNewick((MultiTypeNode)root, m_nodes, nodeCount);
+    }
+
+    /**
+     * Write sorted typed Newick representation of a tree that need not be
+     * the one held by this object, but which shares its type set.  Nodes
+     * must be numbered consecutively from zero.
+     *
+     * @param treeRoot root of tree
+     * @param nodes nodes of tree, indexed by node number
+     * @param nNodes number of nodes in tree
+     * @return buffer containing Newick string, valid until next call
+     */
+    protected CharSequence getTypedNewick(MultiTypeNode treeRoot,
+            Node[] nodes, int nNodes) {
+        if (newickBuffer == null)
+            newickBuffer = new StringBuilder();
+        newickBuffer.setLength(0);
+
+        if (newickMinLeafNrs == null || newickMinLeafNrs.length < nNodes) {
+            newickMinLeafNrs = new int[nNodes];
+            newickChangeNrOffsets = new int[nNodes];
+        }
+
+        // Flattened tree numbers change nodes consecutively, following the
+        // node array and skipping the root.
+        int nextNr = nNodes;
+        for (int nr=0; nr<nNodes; nr++) {
+            newickChangeNrOffsets[nr] = nextNr;
+            if (!nodes[nr].isRoot())
+                nextNr += ((MultiTypeNode)nodes[nr]).getChangeCount();
+        }
+
+        computeMinLeafNrs(treeRoot);
+        appendTypedNewick(newickBuffer, treeRoot);
+
+        return newickBuffer;
+    }
+
+    /**
+     * Write sorted typed Newick representation of a tree directly to a
+     * print stream.  The buffer is copied in fixed-size chunks into a
+     * reused array and written from there, so only the final partial
+     * chunk is copied into a new String.  PrintStream.append() would
+     * instead copy the whole tree.
+     *
+     * @param printStream stream to write to
+     * @param treeRoot root of tree
+     * @param nodes nodes of tree, indexed by node number
+     * @param nNodes number of nodes in tree
+     */
+    protected void printTypedNewick(PrintStream printStream,
+            MultiTypeNode treeRoot, Node[] nodes, int nNodes) {
+        getTypedNewick(treeRoot, nodes, nNodes);
+
+        if (newickChunk == null)
+            newickChunk = new char[NEWICK_CHUNK_SIZE];
+
+        int length = newickBuffer.length();
+        int start = 0;
+        while (length-start >= NEWICK_CHUNK_SIZE) {
+            newickBuffer.getChars(start, start+NEWICK_CHUNK_SIZE, newickChunk, 0);
+            printStream.print(newickChunk);
+            start += NEWICK_CHUNK_SIZE;
+        }
+
+        if (start<length)
+            printStream.append(newickBuffer, start, length);
+    }
+
+    /**
+     * Record the smallest leaf number found in each clade.  This determines
+     * the order in which children are written.
+     *
+     * @param node root of clade
+     * @return smallest leaf number in clade
+     */
+    private int computeMinLeafNrs(Node node) {
+        int minNr;
+        if (node.isLeaf())
+            minNr = node.getNr();
+        else {
+            minNr = computeMinLeafNrs(node.getLeft());
+            if (node.getRight() != null)
+                minNr = Math.min(minNr, computeMinLeafNrs(node.getRight()));
         }
+
+        newickMinLeafNrs[node.getNr()] = minNr;
+        return minNr;
+    }
+
+    /**
+     * Append typed Newick representation of the clade below node, including
+     * the branch (and type changes) above it.
+     *
+     * @param sb buffer to append to
+     * @param node root of clade
+     */
+    private void appendTypedNewick(StringBuilder sb, MultiTypeNode node) {
+        int nChanges = node.isRoot() ? 0 : node.getChangeCount();
+
+        for (int i=0; i<nChanges; i++)
+            sb.append('(');
+
+        if (node.isLeaf())
+            sb.append(node.getNr()+1);
+        else {
+            sb.append('(');
+            Node first = node.getLeft();
+            Node second = node.getRight();
+            if (second != null
+                    && newickMinLeafNrs[first.getNr()] > newickMinLeafNrs[second.getNr()]) {
+                first = node.getRight();
+                second = node.getLeft();
+            }
+            appendTypedNewick(sb, (MultiTypeNode)first);
+            if (second != null) {
+                sb.append(',');
+                appendTypedNewick(sb, (MultiTypeNode)second);
+            }
+            sb.append(')');
+            if (node.getID() != null)
+                sb.append(node.getNr()+1);
+        }
+
+        // Flattened root takes its metadata from its children's branches,
+        // except when it has none.
+        if (node.isRoot()) {
+            if (!node.isLeaf())
+                appendTypeMetaData(sb, node.getNodeType());
+            else if (node.metaDataString != null)
+                sb.append("[&").append(node.metaDataString).append(']');
+            sb.append(':').append(0.0);
+            return;
+        }
+
+        appendTypeMetaData(sb, node.getNodeType());
+        double tabove = nChanges>0
+                ? node.getChangeTime(0)
+                : node.getParent().getHeight();
+        sb.append(':').append(tabove - node.getHeight());
+
+        for (int i=0; i<nChanges; i++) {
+            tabove = i+1<nChanges
+                    ? node.getChangeTime(i+1)
+                    : node.getParent().getHeight();
+
+            sb.append(')').append(newickChangeNrOffsets[node.getNr()] + i + 1);
+            appendTypeMetaData(sb, node.getChangeType(i));
+            sb.append(':').append(tabove - node.getChangeTime(i));
+        }
+    }
+
+    private void appendTypeMetaData(StringBuilder sb, int type) {
+        sb.append("[&").append(typeLabel).append("=\"")
+                .append(getTypeString(type)).append("\"]");
     }
 
     /////////////////////////////////////////////////
     //           StateNode implementation          //
     /////////////////////////////////////////////////
+    /**
+     * Copies the current tree to the stored tree.  Only nodes edited since
+     * the previous call are copied, so the cost scales with the size of the
+     * last edit rather than with the size of the tree.
+     */
     @Override
     protected void store() {
         storedRoot = m_storedNodes[root.getNr()];
         int iRoot = root.getNr();
 
-        storeNodes(0, iRoot);
-        
-        storedRoot.height = m_nodes[iRoot].height;
-        storedRoot.parent = null;
+        if (storeAllNodes) {
+            for (int i = 0; i<nodeCount; i++)
+                storeNode(i, iRoot);
+        } else {
+            for (int k = 0; k<nEditedNodes; k++)
+                storeNode(editedNodeNrs[k], iRoot);
+        }
 
-        if (root.getLeft()!=null)
-            storedRoot.setLeft(m_storedNodes[root.getLeft().getNr()]);
-        else
-            storedRoot.setLeft(null);
-        if (root.getRight()!=null)
-            storedRoot.setRight(m_storedNodes[root.getRight().getNr()]);
-        else
-            storedRoot.setRight(null);
-        
-        MultiTypeNode mtStoredRoot = (MultiTypeNode)storedRoot;
-        mtStoredRoot.changeTimes.clear();
-        mtStoredRoot.changeTimes.addAll(((MultiTypeNode)m_nodes[iRoot]).changeTimes);
+        clearEditedNodes();
+    }
 
-        mtStoredRoot.changeTypes.clear();
-        mtStoredRoot.changeTypes.addAll(((MultiTypeNode)m_nodes[iRoot]).changeTypes);
-        
-        mtStoredRoot.nTypeChanges = ((MultiTypeNode)m_nodes[iRoot]).nTypeChanges;
-        mtStoredRoot.nodeType = ((MultiTypeNode)m_nodes[iRoot]).nodeType;
-        
-        storeNodes(iRoot+1, nodeCount);
+    @Override
+    public void restore() {
+        super.restore();
+
+        // Swapped node arrays differ only at the edited node numbers.
+        if (storeAllNodes) {
+            rebuildChangeIndex();
+            eventIndexNeedsRebuild = true;
+        } else {
+            for (int k = 0; k<nEditedNodes; k++) {
+                updateChangeIndex(editedNodeNrs[k]);
+                markNodeEventsDirty(editedNodeNrs[k]);
+            }
+        }
     }
 
     /**
      * helper to store *
      */
-    private void storeNodes(int iStart, int iEnd) {
-        for (int i = iStart; i<iEnd; i++) {
-            MultiTypeNode sink = (MultiTypeNode)m_storedNodes[i];
-            MultiTypeNode src = (MultiTypeNode)m_nodes[i];
-            sink.height = src.height;
+    private void storeNode(int i, int iRoot) {
+        MultiTypeNode sink = (MultiTypeNode)m_storedNodes[i];
+        MultiTypeNode src = (MultiTypeNode)m_nodes[i];
+        sink.height = src.height;
+
+        if (i == iRoot) {
+            sink.parent = null;
+            if (src.getLeft()!=null)
+                sink.setLeft(m_storedNodes[src.getLeft().getNr()]);
+            else
+                sink.setLeft(null);
+            if (src.getRight()!=null)
+                sink.setRight(m_storedNodes[src.getRight().getNr()]);
+            else
+                sink.setRight(null);
+        } else {
             sink.parent = m_storedNodes[src.parent.getNr()];
             if (src.getLeft()!=null) {
                 sink.setLeft(m_storedNodes[src.getLeft().getNr()]);
@@ -800,16 +1294,21 @@ public class MultiTypeTree extends Tree {
                 else
                     sink.setRight(null);
             }
-            
-            sink.changeTimes.clear();
-            sink.changeTimes.addAll(src.changeTimes);
-            
-            sink.changeTypes.clear();
-            sink.changeTypes.addAll(src.changeTypes);
-            
-            sink.nTypeChanges = src.nTypeChanges;
-            sink.nodeType = src.nodeType;
         }
+
+        sink.copyChangesFrom(src);
+        sink.nodeType = src.nodeType;
+    }
+
+    @Override
+    public void setEverythingDirty(boolean isDirty) {
+        super.setEverythingDirty(isDirty);
+
+        if (isDirty)
+            storeAllNodes = true;
+
+        for (Node node : m_nodes)
+            ((MultiTypeNode)node).typingDirty = isDirty;
     }
 
     /////////////////////////////////////////////////
@@ -842,7 +1341,7 @@ public class MultiTypeTree extends Tree {
     @Override
     public void log(int i, PrintStream printStream) {
         printStream.print("tree STATE_"+i+" = ");
-        printStream.print(toString());
+        printTypedNewick(printStream, (MultiTypeNode)root, m_nodes, nodeCount);
         printStream.print(";");
 
 
@@ -865,23 +1364,176 @@ public class MultiTypeTree extends Tree {
     @Override
     public void fromXML(org.w3c.dom.Node node) {
         try {
-            String sNewick = node.getTextContent().replace("&", "");
-
-            TreeParser parser = new TreeParser();
-            parser.initByName(
-                    "IsLabelledNewick", false,
-                    "offset", 0,
-                    "adjustTipHeights", false,
-                    "singlechild", true,
-                    "newick", sNewick);
-            //parser.m_nThreshold.setValue(1e-10, parser);
-            //parser.m_nOffset.setValue(0, parser);
-            
-            initFromFlatTree(parser, true);
+            String sText = node.getTextContent().trim();
+            if (sText.startsWith(BINARY_STATE_PREFIX)) {
+                initFromBinaryState(sText);
+                return;
+            }
 
-            initArrays();
+            String sNewick = sText.replace("&", "");
+
+            initFromTypedNewick(sNewick, 0);
         } catch (Exception ex) {
             Logger.getLogger(MultiTypeTree.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /*
+     * Binary state encoding.  The state file holds BINARY_STATE_PREFIX
+     * followed by the base64 encoding of: a magic number, a format version,
+     * a flags byte and then (deflated if the compression flag is set) the
+     * node count, root number and, for each node in number order, its
+     * height, parent/left/right numbers (-1 if absent), node type, change
+     * count and change times and types, followed for leaves by the node ID
+     * (preceded by a flag indicating whether the ID is present).
+     */
+
+    private static final String BINARY_STATE_PREFIX = "MTTB:";
+    private static final int BINARY_STATE_MAGIC = 0x4D545442;
+    private static final short BINARY_STATE_VERSION = 1;
+    private static final byte BINARY_STATE_COMPRESSED = 1;
+
+    /**
+     * Encode tree as text-safe binary state string.
+     *
+     * @param compress if true, compress node data
+     * @return encoded state
+     * @throws IOException
+     */
+    public String getBinaryState(boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(BINARY_STATE_MAGIC);
+        header.writeShort(BINARY_STATE_VERSION);
+        header.writeByte(compress ? BINARY_STATE_COMPRESSED : 0);
+        header.flush();
+
+        OutputStream body = compress ? new DeflaterOutputStream(bytes) : bytes;
+        DataOutputStream out = new DataOutputStream(body);
+
+        out.writeInt(nodeCount);
+        out.writeInt(root.getNr());
+        for (int i=0; i<nodeCount; i++) {
+            MultiTypeNode node = (MultiTypeNode)m_nodes[i];
+            out.writeDouble(node.height);
+            out.writeInt(node.parent == null ? -1 : node.parent.getNr());
+            out.writeInt(node.getLeft() == null ? -1 : node.getLeft().getNr());
+            out.writeInt(node.getRight() == null ? -1 : node.getRight().getNr());
+            out.writeInt(node.nodeType);
+            out.writeInt(node.nTypeChanges);
+            for (int c=0; c<node.nTypeChanges; c++) {
+                out.writeDouble(node.changeTimes[c]);
+                out.writeInt(node.changeTypes[c]);
+            }
+            if (node.isLeaf()) {
+                out.writeBoolean(node.getID() != null);
+                if (node.getID() != null)
+                    out.writeUTF(node.getID());
+            }
+        }
+        out.close();
+
+        return BINARY_STATE_PREFIX
+                + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Restore tree from string produced by getBinaryState().  When the
+     * existing node arrays have the right size the decoded state is
+     * written straight into them, preserving the IDs of internal nodes.
+     *
+     * @param encoded encoded state
+     * @throws IOException
+     */
+    public void initFromBinaryState(String encoded) throws IOException {
+        if (!encoded.startsWith(BINARY_STATE_PREFIX))
+            throw new IllegalArgumentException("Not a binary tree state.");
+
+        byte[] data = Base64.getMimeDecoder().decode(
+                encoded.substring(BINARY_STATE_PREFIX.length()));
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+
+        DataInputStream header = new DataInputStream(bytes);
+        if (header.readInt() != BINARY_STATE_MAGIC)
+            throw new IllegalArgumentException("Binary tree state has bad magic number.");
+        short version = header.readShort();
+        if (version != BINARY_STATE_VERSION)
+            throw new IllegalArgumentException("Unsupported binary tree state version "
+                    + version + ".");
+        boolean compressed = (header.readByte() & BINARY_STATE_COMPRESSED) != 0;
+
+        InputStream body = compressed ? new InflaterInputStream(bytes) : bytes;
+        DataInputStream in = new DataInputStream(body);
+
+        int newNodeCount = in.readInt();
+        int rootNr = in.readInt();
+
+        boolean reuseNodes = m_nodes != null && m_nodes.length == newNodeCount;
+        MultiTypeNode[] nodes;
+        if (reuseNodes)
+            nodes = (MultiTypeNode[])m_nodes;
+        else {
+            nodes = new MultiTypeNode[newNodeCount];
+            for (int i=0; i<newNodeCount; i++) {
+                nodes[i] = new MultiTypeNode();
+                nodes[i].labelNr = i;
+                nodes[i].ID = String.valueOf(i);
+            }
+        }
+
+        int newLeafCount = 0;
+        double[] times = new double[0];
+        int[] types = new int[0];
+        for (int i=0; i<newNodeCount; i++) {
+            MultiTypeNode node = nodes[i];
+            node.height = in.readDouble();
+            int parentNr = in.readInt();
+            int leftNr = in.readInt();
+            int rightNr = in.readInt();
+            node.nodeType = in.readInt();
+
+            int nChanges = in.readInt();
+            if (times.length < nChanges) {
+                times = new double[nChanges];
+                types = new int[nChanges];
+            }
+            for (int c=0; c<nChanges; c++) {
+                times[c] = in.readDouble();
+                types[c] = in.readInt();
+            }
+            node.setChanges(times, types, nChanges);
+
+            node.parent = parentNr<0 ? null : nodes[parentNr];
+            node.children.clear();
+            if (leftNr>=0)
+                node.children.add(nodes[leftNr]);
+            if (rightNr>=0)
+                node.children.add(nodes[rightNr]);
+
+            if (leftNr<0) {
+                newLeafCount += 1;
+
+                String id = in.readBoolean() ? in.readUTF() : null;
+                node.ID = id;
+                if (reuseNodes)
+                    m_storedNodes[i].ID = id;
+            }
+        }
+        in.close();
+
+        root = nodes[rootNr];
+        nodeCount = newNodeCount;
+        leafNodeCount = newLeafCount;
+        internalNodeCount = newNodeCount - newLeafCount;
+
+        if (reuseNodes) {
+            // Bring stored nodes and derived indices into line.
+            storeAllNodes = true;
+            store();
+            rebuildChangeIndex();
+            eventIndexNeedsRebuild = true;
+        } else
+            initArrays();
+    }
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import java.util.Arrays;
+
+/**
+ * Time-ordered index of the sampling, coalescence and type change events
+ * making up a multi-type tree.  Events are held in a treap keyed by time.
+ * This allows events to be inserted and removed node by node in O(log n)
+ * and range queries to be answered in O(log n + k).
+ *
+ * Instances are owned and kept up to date by MultiTypeTree; obtain one
+ * using MultiTypeTree.getEventIndex().
+ *
+ * @author agent
+ */
+public class MultiTypeTreeEventIndex {
+
+    public static final int SAMPLE = 0, COALESCE = 1, MIGRATE = 2;
+
+    /**
+     * Callback used to visit events in a time range.
+     */
+    public interface EventVisitor {
+
+        /**
+         * Visit a single event.  For migrations, type is the type below
+         * the change and destType the type above it.  For other events
+         * the two types are equal.
+         *
+         * @param time time of event
+         * @param kind one of SAMPLE, COALESCE or MIGRATE
+         * @param type type of lineage(s) below event
+         * @param destType type of lineage above event
+         * @param nodeNr number of node below branch on which event lies
+         * @return false to end the traversal early, true otherwise
+         */
+        boolean visit(double time, int kind, int type, int destType, int nodeNr);
+    }
+
+    private static class Entry {
+        double time;
+        int nodeNr, changeIdx;
+        int kind, type, destType;
+
+        int priority;
+        Entry left, right;
+    }
+
+    private final int nTypes;
+    private Entry root;
+    private int size;
+
+    // Entries belonging to each node, so that they can be removed when
+    // that node is edited.
+    private Entry[][] nodeEntries;
+    private int[] nodeEntryCounts;
+
+    // State of the xorshift generator used for treap priorities.  Kept
+    // separate from Randomizer so that using the index does not perturb
+    // the MCMC random number stream.
+    private int priorityState = 0x2545F491;
+
+    /**
+     * Create empty event index.
+     *
+     * @param nTypes number of types
+     * @param nodeCount number of nodes in tree
+     */
+    public MultiTypeTreeEventIndex(int nTypes, int nodeCount) {
+        this.nTypes = nTypes;
+        nodeEntries = new Entry[nodeCount][];
+        nodeEntryCounts = new int[nodeCount];
+        for (int nr=0; nr<nodeCount; nr++)
+            nodeEntries[nr] = new Entry[0];
+    }
+
+    /**
+     * @return number of types
+     */
+    public int getNTypes() {
+        return nTypes;
+    }
+
+    /**
+     * @return total number of events in index
+     */
+    public int getEventCount() {
+        return size;
+    }
+
+    /**
+     * Replace the events belonging to the given node (its sampling or
+     * coalescence event and any type changes on the branch above it, the
+     * latter only if it is not the root) with those currently on the tree.
+     * Existing entries are reused, so this allocates only when a branch
+     * holds more changes than it has previously.
+     *
+     * @param node node whose events are to be updated
+     */
+    void setNodeEvents(MultiTypeNode node) {
+        int nr = node.getNr();
+
+        for (int i=0; i<nodeEntryCounts[nr]; i++) {
+            root = remove(root, nodeEntries[nr][i]);
+            size -= 1;
+        }
+
+        int nChanges = node.isRoot() ? 0 : node.getChangeCount();
+        if (nodeEntries[nr].length < nChanges+1) {
+            int oldLength = nodeEntries[nr].length;
+            nodeEntries[nr] = Arrays.copyOf(nodeEntries[nr], nChanges+1);
+            for (int i=oldLength; i<nodeEntries[nr].length; i++)
+                nodeEntries[nr][i] = new Entry();
+        }
+
+        int type = node.getNodeType();
+        setEntry(nodeEntries[nr][0], node.getHeight(), nr, -1,
+                node.isLeaf() ? SAMPLE : COALESCE, type, type);
+
+        for (int i=0; i<nChanges; i++) {
+            int destType = node.getChangeType(i);
+            setEntry(nodeEntries[nr][i+1], node.getChangeTime(i), nr, i,
+                    MIGRATE, type, destType);
+            type = destType;
+        }
+
+        nodeEntryCounts[nr] = nChanges+1;
+        for (int i=0; i<nodeEntryCounts[nr]; i++) {
+            root = insert(root, nodeEntries[nr][i]);
+            size += 1;
+        }
+    }
+
+    private void setEntry(Entry entry, double time, int nodeNr, int changeIdx,
+            int kind, int type, int destType) {
+        entry.time = time;
+        entry.nodeNr = nodeNr;
+        entry.changeIdx = changeIdx;
+        entry.kind = kind;
+        entry.type = type;
+        entry.destType = destType;
+        entry.left = null;
+        entry.right = null;
+
+        priorityState ^= priorityState << 13;
+        priorityState ^= priorityState >>> 17;
+        priorityState ^= priorityState << 5;
+        entry.priority = priorityState;
+    }
+
+    /**
+     * Visit, in order of increasing time, every event with a time between
+     * h1 and h2 inclusive.  Events sharing a time are visited in order of
+     * node number and then change index.
+     *
+     * @param h1 lower time bound
+     * @param h2 upper time bound
+     * @param visitor callback to invoke for each event
+     * @return false if the visitor ended the traversal early
+     */
+    public boolean visitEvents(double h1, double h2, EventVisitor visitor) {
+        return visitEvents(root, h1, h2, visitor);
+    }
+
+    private boolean visitEvents(Entry entry, double h1, double h2,
+            EventVisitor visitor) {
+        if (entry == null)
+            return true;
+
+        if (entry.time >= h1 && !visitEvents(entry.left, h1, h2, visitor))
+            return false;
+
+        if (entry.time >= h1 && entry.time <= h2
+                && !visitor.visit(entry.time, entry.kind, entry.type,
+                        entry.destType, entry.nodeNr))
+            return false;
+
+        return entry.time > h2 || visitEvents(entry.right, h1, h2, visitor);
+    }
+
+    /*
+     * Treap implementation.
+     */
+
+    private static int compare(Entry a, Entry b) {
+        if (a.time != b.time)
+            return a.time < b.time ? -1 : 1;
+        if (a.nodeNr != b.nodeNr)
+            return a.nodeNr < b.nodeNr ? -1 : 1;
+        return Integer.compare(a.changeIdx, b.changeIdx);
+    }
+
+    private Entry insert(Entry subtree, Entry entry) {
+        if (subtree == null)
+            return entry;
+
+        if (entry.priority > subtree.priority) {
+            Entry[] parts = split(subtree, entry);
+            entry.left = parts[0];
+            entry.right = parts[1];
+            return entry;
+        }
+
+        if (compare(entry, subtree) < 0)
+            subtree.left = insert(subtree.left, entry);
+        else
+            subtree.right = insert(subtree.right, entry);
+
+        return subtree;
+    }
+
+    private final Entry[] splitResult = new Entry[2];
+
+    /**
+     * Split subtree into entries ordered before key and those after it.
+     * The result array is reused between calls.
+     */
+    private Entry[] split(Entry subtree, Entry key) {
+        if (subtree == null) {
+            splitResult[0] = null;
+            splitResult[1] = null;
+            return splitResult;
+        }
+
+        if (compare(subtree, key) < 0) {
+            split(subtree.right, key);
+            subtree.right = splitResult[0];
+            splitResult[0] = subtree;
+        } else {
+            split(subtree.left, key);
+            subtree.left = splitResult[1];
+            splitResult[1] = subtree;
+        }
+
+        return splitResult;
+    }
+
+    private Entry merge(Entry a, Entry b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            return b;
+        }
+    }
+
+    private Entry remove(Entry subtree, Entry entry) {
+        if (subtree == null)
+            throw new IllegalStateException("Event missing from index.");
+
+        if (subtree == entry)
+            return merge(entry.left, entry.right);
+
+        if (compare(entry, subtree) < 0)
+            subtree.left = remove(subtree.left, entry);
+        else
+            subtree.right = remove(subtree.right, entry);
+
+        return subtree;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import beast.util.Randomizer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Source of random numbers for operators and simulators.  GLOBAL draws
+ * from the shared BEAST Randomizer, while private streams backed by
+ * SplittableRandom allow independent objects to be used from separate
+ * threads with reproducible results.  A private stream must not itself
+ * be shared between threads.
+ *
+ * @author agent
+ */
+public interface RandomSource {
+
+    double nextDouble();
+
+    int nextInt(int n);
+
+    long nextLong();
+
+    default boolean nextBoolean() {
+        return nextDouble() < 0.5;
+    }
+
+    default double nextExponential(double rate) {
+        return -Math.log1p(-nextDouble())/rate;
+    }
+
+    /**
+     * Draw Poisson variate as a sum of variates with means no greater
+     * than 10, each obtained by multiplying uniforms, so that exp(-mean)
+     * never underflows.
+     *
+     * @param mean mean of distribution
+     * @return Poisson variate
+     */
+    default double nextPoisson(double mean) {
+        long n = 0;
+        double remaining = mean;
+        while (remaining > 0.0) {
+            double chunk = Math.min(remaining, 10.0);
+            double limit = Math.exp(-chunk);
+            double prod = nextDouble();
+            while (prod > limit) {
+                n += 1;
+                prod *= nextDouble();
+            }
+            remaining -= chunk;
+        }
+
+        return n;
+    }
+
+    /**
+     * Random source drawing from the global BEAST Randomizer.
+     */
+    RandomSource GLOBAL = new RandomSource() {
+        @Override
+        public double nextDouble() {
+            return Randomizer.nextDouble();
+        }
+
+        @Override
+        public int nextInt(int n) {
+            return Randomizer.nextInt(n);
+        }
+
+        @Override
+        public long nextLong() {
+            return Randomizer.nextLong();
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return Randomizer.nextBoolean();
+        }
+
+        @Override
+        public double nextExponential(double rate) {
+            return Randomizer.nextExponential(rate);
+        }
+
+        @Override
+        public double nextPoisson(double mean) {
+            return Randomizer.nextPoisson(mean);
+        }
+    };
+
+    /**
+     * Create random source drawing from the given stream.
+     *
+     * @param random random number stream
+     * @return random source
+     */
+    static RandomSource fromStream(final SplittableRandom random) {
+        return new RandomSource() {
+            @Override
+            public double nextDouble() {
+                return random.nextDouble();
+            }
+
+            @Override
+            public int nextInt(int n) {
+                return random.nextInt(n);
+            }
+
+            @Override
+            public long nextLong() {
+                return random.nextLong();
+            }
+
+            @Override
+            public boolean nextBoolean() {
+                return random.nextBoolean();
+            }
+        };
+    }
+
+    /**
+     * Create private random source for the object identified by key.  The
+     * stream is seeded from the BEAST master seed and the key alone, so it
+     * does not depend on the order in which objects are initialised.
+     *
+     * @param key unique identifier of object, usually its ID
+     * @return random source
+     */
+    static RandomSource forKey(String key) {
+        // 64-bit FNV-1a hash of key:
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return fromStream(new SplittableRandom(
+                Randomizer.getSeed()*0x9e3779b97f4a7c15L ^ hash));
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import org.jblas.ComplexDoubleMatrix;
+import org.jblas.DoubleMatrix;
+import org.jblas.Eigen;
+import org.jblas.MatrixFunctions;
+import org.jblas.Solve;
+
+/**
+ * Eigendecomposition Q = V diag(lambda) V^-1 of a transition rate matrix,
+ * used to evaluate elements of exp(QL) without computing the full matrix
+ * exponential.  Eigenvalues and eigenvectors of a general real matrix may
+ * be complex, so real and imaginary parts are held separately.  If the
+ * eigenvector matrix is too badly conditioned (Q is defective or nearly
+ * so), all requests fall back to Pade approximation of exp(QL).
+ *
+ * Instances are immutable once constructed, so may be queried from
+ * several threads at once.
+ *
+ * @author agent
+ */
+class RateMatrixEigenSystem {
+
+    // Eigenvector matrices with condition numbers above this are
+    // considered unreliable.
+    private static final double MAX_CONDITION_NUMBER = 1e10;
+
+    // Tolerance used when clipping rounding errors from probabilities.
+    private static final double PROB_TOLERANCE = 1e-10;
+
+    private final int n;
+    private final DoubleMatrix Q;
+    private final boolean defective;
+
+    // Eigenvalues, and eigenvectors stored row-major:
+    private double[] lambdaRe, lambdaIm;
+    private double[] VRe, VIm, VinvRe, VinvIm;
+
+    /**
+     * Decompose rate matrix.
+     *
+     * @param Q rate matrix
+     * @param symmetric true if Q is known to be symmetric
+     */
+    RateMatrixEigenSystem(DoubleMatrix Q, boolean symmetric) {
+        this.Q = Q;
+        n = Q.rows;
+
+        if (symmetric)
+            defective = !decomposeSymmetric();
+        else
+            defective = !decomposeGeneral();
+    }
+
+    /**
+     * Symmetric matrices have real eigenvalues and an orthogonal
+     * eigenvector matrix, so V^-1 = V^T.
+     *
+     * @return true if decomposition succeeded
+     */
+    private boolean decomposeSymmetric() {
+        DoubleMatrix[] eig = Eigen.symmetricEigenvectors(Q);
+
+        lambdaRe = eig[1].diag().toArray();
+        lambdaIm = new double[n];
+        VRe = new double[n*n];
+        VIm = new double[n*n];
+        VinvRe = new double[n*n];
+        VinvIm = new double[n*n];
+        for (int i=0; i<n; i++) {
+            for (int k=0; k<n; k++) {
+                VRe[i*n+k] = eig[0].get(i, k);
+                VinvRe[k*n+i] = eig[0].get(i, k);
+            }
+        }
+
+        return isFinite(VRe) && isFinite(lambdaRe);
+    }
+
+    /**
+     * General case.  The complex inverse (X+iY)^-1 = U+iW is found by
+     * solving the equivalent real system [X -Y; Y X][U; W] = [I; 0].
+     *
+     * @return true if decomposition succeeded and is well conditioned
+     */
+    private boolean decomposeGeneral() {
+        ComplexDoubleMatrix[] eig = Eigen.eigenvectors(Q);
+
+        DoubleMatrix X = eig[0].real();
+        DoubleMatrix Y = eig[0].imag();
+        lambdaRe = eig[1].diag().real().toArray();
+        lambdaIm = eig[1].diag().imag().toArray();
+
+        DoubleMatrix M = new DoubleMatrix(2*n, 2*n);
+        DoubleMatrix rhs = new DoubleMatrix(2*n, n);
+        for (int i=0; i<n; i++) {
+            for (int j=0; j<n; j++) {
+                M.put(i, j, X.get(i, j));
+                M.put(i, j+n, -Y.get(i, j));
+                M.put(i+n, j, Y.get(i, j));
+                M.put(i+n, j+n, X.get(i, j));
+            }
+            rhs.put(i, i, 1.0);
+        }
+        DoubleMatrix UW = Solve.solve(M, rhs);
+
+        VRe = new double[n*n];
+        VIm = new double[n*n];
+        VinvRe = new double[n*n];
+        VinvIm = new double[n*n];
+        for (int i=0; i<n; i++) {
+            for (int j=0; j<n; j++) {
+                VRe[i*n+j] = X.get(i, j);
+                VIm[i*n+j] = Y.get(i, j);
+                VinvRe[i*n+j] = UW.get(i, j);
+                VinvIm[i*n+j] = UW.get(i+n, j);
+            }
+        }
+
+        if (!isFinite(VinvRe) || !isFinite(VinvIm)
+                || !isFinite(lambdaRe) || !isFinite(lambdaIm))
+            return false;
+
+        return infNorm(VRe, VIm)*infNorm(VinvRe, VinvIm) < MAX_CONDITION_NUMBER;
+    }
+
+    private static boolean isFinite(double[] arr) {
+        for (double x : arr)
+            if (Double.isNaN(x) || Double.isInfinite(x))
+                return false;
+        return true;
+    }
+
+    private double infNorm(double[] re, double[] im) {
+        double norm = 0.0;
+        for (int i=0; i<n; i++) {
+            double rowSum = 0.0;
+            for (int j=0; j<n; j++)
+                rowSum += Math.hypot(re[i*n+j], im[i*n+j]);
+            norm = Math.max(norm, rowSum);
+        }
+        return norm;
+    }
+
+    /**
+     * @return true if the Pade approximation is used in place of the
+     * eigendecomposition.
+     */
+    boolean isDefective() {
+        return defective;
+    }
+
+    /**
+     * Compute element (i,j) of exp(QL) in O(n) time, or O(n^3) if the
+     * decomposition is unavailable.
+     *
+     * @param i row index
+     * @param j column index
+     * @param L time
+     * @return transition probability
+     */
+    double getTransitionProb(int i, int j, double L) {
+        if (defective)
+            return MatrixFunctions.expm(Q.mul(L)).get(i, j);
+
+        double p = 0.0;
+        for (int k=0; k<n; k++) {
+            double scale = Math.exp(lambdaRe[k]*L);
+            double expRe = scale*Math.cos(lambdaIm[k]*L);
+            double expIm = scale*Math.sin(lambdaIm[k]*L);
+
+            double aRe = VRe[i*n+k]*expRe - VIm[i*n+k]*expIm;
+            double aIm = VRe[i*n+k]*expIm + VIm[i*n+k]*expRe;
+            p += aRe*VinvRe[k*n+j] - aIm*VinvIm[k*n+j];
+        }
+
+        return clipProb(p);
+    }
+
+    /**
+     * Remove rounding noise from a probability without masking genuine
+     * failures.
+     *
+     * @param p probability
+     * @return clipped probability
+     */
+    private static double clipProb(double p) {
+        if (p<0.0 && p>-PROB_TOLERANCE)
+            return 0.0;
+        if (p>1.0 && p<1.0+PROB_TOLERANCE)
+            return 1.0;
+
+        return p;
+    }
+
+    /**
+     * Compute exp(QL).
+     *
+     * @param L time
+     * @return transition probability matrix
+     */
+    DoubleMatrix getTransitionMatrix(double L) {
+        if (defective)
+            return MatrixFunctions.expm(Q.mul(L));
+
+        // Exponentials are shared by all elements:
+        double[] expRe = new double[n];
+        double[] expIm = new double[n];
+        for (int k=0; k<n; k++) {
+            double scale = Math.exp(lambdaRe[k]*L);
+            expRe[k] = scale*Math.cos(lambdaIm[k]*L);
+            expIm[k] = scale*Math.sin(lambdaIm[k]*L);
+        }
+
+        DoubleMatrix P = new DoubleMatrix(n, n);
+        for (int i=0; i<n; i++) {
+            for (int j=0; j<n; j++) {
+                double p = 0.0;
+                for (int k=0; k<n; k++) {
+                    double aRe = VRe[i*n+k]*expRe[k] - VIm[i*n+k]*expIm[k];
+                    double aIm = VRe[i*n+k]*expIm[k] + VIm[i*n+k]*expRe[k];
+                    p += aRe*VinvRe[k*n+j] - aIm*VinvIm[k*n+j];
+                }
+                P.put(i, j, clipProb(p));
+            }
+        }
+
+        return P;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import org.jblas.DoubleMatrix;
+
+/**
+ * Immutable square matrix in compressed sparse row (CSR) form, used for
+ * migration rate matrices in which most rates are switched off.  The
+ * diagonal is always stored, even when zero, so that every row is
+ * non-empty.  Within each row, column indices are increasing.
+ *
+ * @author agent
+ */
+public class SparseRateMatrix {
+
+    private final int n;
+    private final int[] rowStart, cols;
+    private final double[] values;
+
+    /**
+     * Construct sparse matrix from the non-zero and diagonal elements of
+     * a dense matrix.
+     *
+     * @param dense row-major array of n*n elements
+     * @param n matrix dimension
+     */
+    public SparseRateMatrix(double[] dense, int n) {
+        this.n = n;
+
+        int nnz = 0;
+        for (int i=0; i<n; i++)
+            for (int j=0; j<n; j++)
+                if (i==j || dense[i*n+j] != 0.0)
+                    nnz += 1;
+
+        rowStart = new int[n+1];
+        cols = new int[nnz];
+        values = new double[nnz];
+
+        int k = 0;
+        for (int i=0; i<n; i++) {
+            rowStart[i] = k;
+            for (int j=0; j<n; j++) {
+                if (i==j || dense[i*n+j] != 0.0) {
+                    cols[k] = j;
+                    values[k] = dense[i*n+j];
+                    k += 1;
+                }
+            }
+        }
+        rowStart[n] = k;
+    }
+
+    /**
+     * @return matrix dimension
+     */
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * @return number of stored elements, including the diagonal
+     */
+    public int getStoredCount() {
+        return values.length;
+    }
+
+    /**
+     * @param i row index
+     * @return index of first stored element of row i
+     */
+    public int getRowStart(int i) {
+        return rowStart[i];
+    }
+
+    /**
+     * @param i row index
+     * @return one past the index of the last stored element of row i
+     */
+    public int getRowEnd(int i) {
+        return rowStart[i+1];
+    }
+
+    /**
+     * @param k index of stored element
+     * @return column of stored element
+     */
+    public int getColumn(int k) {
+        return cols[k];
+    }
+
+    /**
+     * @param k index of stored element
+     * @return value of stored element
+     */
+    public double getValue(int k) {
+        return values[k];
+    }
+
+    /**
+     * Obtain matrix element (i,j), which is zero if not stored.
+     *
+     * @param i row index
+     * @param j column index
+     * @return matrix element
+     */
+    public double get(int i, int j) {
+        int lo = rowStart[i], hi = rowStart[i+1]-1;
+        while (lo<=hi) {
+            int mid = (lo+hi) >>> 1;
+            if (cols[mid]<j)
+                lo = mid+1;
+            else if (cols[mid]>j)
+                hi = mid-1;
+            else
+                return values[mid];
+        }
+        return 0.0;
+    }
+
+    /**
+     * Compute the matrix-vector product y = Ax in O(stored elements) time.
+     *
+     * @param x array holding input vector from xOffset
+     * @param xOffset offset of input vector
+     * @param y array to hold output vector from yOffset
+     * @param yOffset offset of output vector
+     */
+    public void multiply(double[] x, int xOffset, double[] y, int yOffset) {
+        for (int i=0; i<n; i++) {
+            double sum = 0.0;
+            for (int k=rowStart[i]; k<rowStart[i+1]; k++)
+                sum += values[k]*x[xOffset + cols[k]];
+            y[yOffset + i] = sum;
+        }
+    }
+
+    /**
+     * @return dense copy of matrix
+     */
+    public DoubleMatrix toDense() {
+        DoubleMatrix A = new DoubleMatrix(n, n);
+        for (int i=0; i<n; i++)
+            for (int k=rowStart[i]; k<rowStart[i+1]; k++)
+                A.put(i, cols[k], values[k]);
+        return A;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import java.util.Arrays;
+
+/**
+ * Simulator for the lineage count trajectories of the structured
+ * coalescent.  Evolves only the number of lineages of each type, using the
+ * same propensities as StructuredCoalescentSimulator, so that event times,
+ * event types and quantities derived from them have the same distribution
+ * as those of the full simulator while no tree nodes are ever created.
+ *
+ * Leaf types and times are fixed on construction, after which replicates
+ * may be generated repeatedly without allocation.
+ *
+ * @author agent
+ */
+public class StructuredCoalescentCountSimulator {
+
+    private final MigrationModelSnapshot model;
+    private final int nTypes, nLeaves;
+
+    // Leaf times and types ordered by increasing age, ties broken by type.
+    private final double[] sortedLeafTimes;
+    private final int[] sortedLeafTypes;
+
+    private final int[] lineageCounts;
+    private final double[] coalesceProp, migrateProp;
+    private int nActiveLineages;
+
+    private double rootHeight, treeLength;
+    private int rootType;
+    private final int[][] migrationCounts;
+    private final int[] changeCounts;
+
+    private final double[] coalescenceTimes;
+    private final int[] coalescenceTypes;
+    private int nCoalescences;
+
+    /**
+     * Create simulator.
+     *
+     * @param model fixed migration model parameters
+     * @param leafTypes types of leaves
+     * @param leafTimes sampling times (heights) of leaves
+     */
+    public StructuredCoalescentCountSimulator(MigrationModelSnapshot model,
+            int[] leafTypes, double[] leafTimes) {
+        if (leafTypes.length != leafTimes.length)
+            throw new IllegalArgumentException("Leaf type and time arrays "
+                    + "must have the same length.");
+        if (leafTypes.length == 0)
+            throw new IllegalArgumentException("At least one leaf required.");
+
+        this.model = model;
+        nTypes = model.getNTypes();
+        nLeaves = leafTypes.length;
+
+        Integer[] order = new Integer[nLeaves];
+        for (int l = 0; l < nLeaves; l++)
+            order[l] = l;
+        Arrays.sort(order, (Integer l1, Integer l2) -> {
+            int cmp = Double.compare(leafTimes[l1], leafTimes[l2]);
+            if (cmp != 0)
+                return cmp;
+            return Integer.compare(leafTypes[l1], leafTypes[l2]);
+        });
+
+        sortedLeafTimes = new double[nLeaves];
+        sortedLeafTypes = new int[nLeaves];
+        for (int l = 0; l < nLeaves; l++) {
+            sortedLeafTimes[l] = leafTimes[order[l]];
+            sortedLeafTypes[l] = leafTypes[order[l]];
+        }
+
+        lineageCounts = new int[nTypes];
+        coalesceProp = new double[nTypes];
+        migrateProp = new double[nTypes];
+        migrationCounts = new int[nTypes][nTypes];
+        changeCounts = new int[nTypes];
+
+        coalescenceTimes = new double[nLeaves-1];
+        coalescenceTypes = new int[nLeaves-1];
+    }
+
+    /**
+     * Simulate lineage count trajectory back to the most recent common
+     * ancestor of all leaves.
+     *
+     * @param random source of random numbers
+     */
+    public void simulate(RandomSource random) {
+
+        Arrays.fill(lineageCounts, 0);
+        Arrays.fill(coalesceProp, 0.0);
+        Arrays.fill(migrateProp, 0.0);
+        for (int i = 0; i < nTypes; i++)
+            Arrays.fill(migrationCounts[i], 0);
+        Arrays.fill(changeCounts, 0);
+        nActiveLineages = 0;
+        nCoalescences = 0;
+        treeLength = 0.0;
+
+        int nextLeaf = 0;
+        double t = 0.0;
+
+        while (nActiveLineages>1 || nextLeaf<nLeaves) {
+
+            // Step 1: Obtain total propensity.
+            double totalProp = 0.0;
+            for (int i = 0; i < nTypes; i++)
+                totalProp += coalesceProp[i] + migrateProp[i];
+
+            // Step 2: Determine time of next event.
+            double eventTime = totalProp>0.0
+                    ? t + random.nextExponential(totalProp)
+                    : Double.POSITIVE_INFINITY;
+
+            // Step 3: Handle activation of leaves:
+            if (nextLeaf<nLeaves && sortedLeafTimes[nextLeaf] < eventTime) {
+                double leafTime = sortedLeafTimes[nextLeaf];
+                if (nActiveLineages>0)
+                    treeLength += nActiveLineages*(leafTime - t);
+                t = leafTime;
+                addLineages(sortedLeafTypes[nextLeaf], 1);
+                nextLeaf += 1;
+                continue;
+            }
+
+            treeLength += nActiveLineages*(eventTime - t);
+
+            // Step 4: Select event and apply it to lineage counts.
+            implementEvent(random.nextDouble()*totalProp, eventTime);
+
+            // Step 5: Keep track of time increment.
+            t = eventTime;
+        }
+
+        rootHeight = t;
+        for (int i = 0; i < nTypes; i++) {
+            if (lineageCounts[i]>0) {
+                rootType = i;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Select the event identified by U, a uniform variate on [0,totalProp),
+     * and apply it to the lineage counts.
+     *
+     * @param U selection variate
+     * @param time time of event
+     */
+    private void implementEvent(double U, double time) {
+
+        for (int i = 0; i < nTypes; i++) {
+
+            if (U < coalesceProp[i]) {
+                coalescenceTimes[nCoalescences] = time;
+                coalescenceTypes[nCoalescences] = i;
+                nCoalescences += 1;
+                addLineages(i, -1);
+                return;
+            } else
+                U -= coalesceProp[i];
+
+            if (U < migrateProp[i]) {
+                // Divide out the lineage count to select destination:
+                U /= lineageCounts[i];
+                for (int j = 0; j < nTypes; j++) {
+                    if (j == i)
+                        continue;
+
+                    if (U < model.getRate(i, j)) {
+                        migrate(i, j);
+                        return;
+                    } else
+                        U -= model.getRate(i, j);
+                }
+
+                // Rounding may leave U just above the final rate.
+                for (int j = nTypes-1; j >= 0; j--) {
+                    if (j != i && model.getRate(i, j)>0.0) {
+                        migrate(i, j);
+                        return;
+                    }
+                }
+            } else
+                U -= migrateProp[i];
+        }
+
+        // Loop should not fall through.
+        throw new IllegalStateException("Structured coalescent event selection error.");
+    }
+
+    private void migrate(int fromType, int toType) {
+        migrationCounts[fromType][toType] += 1;
+        changeCounts[fromType] += 1;
+        addLineages(fromType, -1);
+        addLineages(toType, 1);
+    }
+
+    /**
+     * Adjust number of lineages of the given type and recompute the
+     * corresponding propensities.
+     *
+     * @param type lineage type
+     * @param delta change in lineage count
+     */
+    private void addLineages(int type, int delta) {
+        lineageCounts[type] += delta;
+        nActiveLineages += delta;
+
+        int k = lineageCounts[type];
+        coalesceProp[type] = k * (k - 1.0) / 2.0 * model.getInvPopSize(type);
+        migrateProp[type] = k * model.getOutRate(type);
+    }
+
+    /**
+     * @return height of root of most recently simulated genealogy
+     */
+    public double getRootHeight() {
+        return rootHeight;
+    }
+
+    /**
+     * @return type of root of most recently simulated genealogy
+     */
+    public int getRootType() {
+        return rootType;
+    }
+
+    /**
+     * @return total branch length of most recently simulated genealogy
+     */
+    public double getTreeLength() {
+        return treeLength;
+    }
+
+    /**
+     * @param type lineage type
+     * @return number of type changes away from type (i.e. changes with type
+     * below the change) in most recently simulated genealogy
+     */
+    public int getChangeCount(int type) {
+        return changeCounts[type];
+    }
+
+    /**
+     * @param fromType type below change
+     * @param toType type above change
+     * @return number of changes from fromType to toType in most recently
+     * simulated genealogy
+     */
+    public int getMigrationCount(int fromType, int toType) {
+        return migrationCounts[fromType][toType];
+    }
+
+    /**
+     * @return number of coalescences in most recently simulated genealogy,
+     * always one less than the number of leaves
+     */
+    public int getCoalescenceCount() {
+        return nCoalescences;
+    }
+
+    /**
+     * @param i index of coalescence, in order of increasing time
+     * @return time of coalescence
+     */
+    public double getCoalescenceTime(int i) {
+        return coalescenceTimes[i];
+    }
+
+    /**
+     * @param i index of coalescence, in order of increasing time
+     * @return type of lineages involved in coalescence
+     */
+    public int getCoalescenceType(int i) {
+        return coalescenceTypes[i];
+    }
+}
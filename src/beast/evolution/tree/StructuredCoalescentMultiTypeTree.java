@@ -24,12 +24,14 @@ import beast.core.StateNodeInitialiser;
 import beast.core.parameter.IntegerParameter;
 import beast.core.parameter.RealParameter;
 import beast.math.statistic.DiscreteStatistics;
-import beast.util.Randomizer;
 import com.google.common.collect.Lists;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A multi-type tree generated randomly from leaf types and a migration matrix
@@ -55,7 +57,19 @@ public class StructuredCoalescentMultiTypeTree extends MultiTypeTree implements
     
     public Input<String> outputFileNameInput = new Input<>(
             "outputFileName", "Optional name of file to write simulated "
-                    + "tree to.");
+                    + "tree to.  Output is gzip compressed if the name "
+                    + "ends in .gz.");
+
+    public Input<Integer> nTreesInput = new Input<>(
+            "nTrees", "Number of trees to simulate and write to output "
+                    + "file.  Trees are written as they are generated and "
+                    + "only the last is retained as this tree.", 1);
+
+    public Input<Boolean> privateRandomStreamInput = new Input<>(
+            "privateRandomStream", "Draw random numbers from a stream "
+                    + "private to this simulation, seeded from the master "
+                    + "seed and the tree ID, rather than from the global "
+                    + "generator. (Default false.)", false);
 
     /*
      * Non-input fields:
@@ -67,42 +81,6 @@ public class StructuredCoalescentMultiTypeTree extends MultiTypeTree implements
     private List<Double> leafTimes;
     private int nLeaves;
 
-    /*
-     * Other private fields and classes:
-     */
-    private abstract class SCEvent {
-
-        double time;
-        int fromType, toType;
-
-        boolean isCoalescence() {
-            return true;
-        }
-    }
-
-    private class CoalescenceEvent extends SCEvent {
-
-        public CoalescenceEvent(int type, double time) {
-            this.fromType = type;
-            this.time = time;
-        }
-    }
-
-    private class MigrationEvent extends SCEvent {
-
-        public MigrationEvent(int fromType, int toType, double time) {
-            this.fromType = fromType;
-            this.toType = toType;
-            this.time = time;
-        }
-    }
-    
-    private class NullEvent extends SCEvent {
-        public NullEvent() {
-            this.time = Double.POSITIVE_INFINITY;
-        }
-    }
-    
     public StructuredCoalescentMultiTypeTree() { }
 
     @Override
@@ -153,312 +131,87 @@ public class StructuredCoalescentMultiTypeTree extends MultiTypeTree implements
         }
         
 
-        // Construct tree
-        this.root = simulateTree();
-        this.root.parent = null;
-        this.nodeCount = this.root.getNodeCount();
-        this.internalNodeCount = this.root.getInternalNodeCount();
-        this.leafNodeCount = this.root.getLeafNodeCount();
-        initArrays();
-
-        // Write tree to disk if requested
-        if (outputFileNameInput.get() != null) {
-            try (PrintStream pstream = new PrintStream(outputFileNameInput.get())) {
-                pstream.println("#nexus\nbegin trees;");
-                pstream.println("tree TREE_1 = " + toString() + ";");
-                pstream.println("end;");
-            }
+        int nTrees = nTreesInput.get();
+        if (nTrees < 1)
+            throw new IllegalArgumentException("nTrees must be at least 1.");
+        if (nTrees > 1 && outputFileNameInput.get() == null)
+            throw new IllegalArgumentException("outputFileName must be "
+                    + "specified when simulating more than one tree.");
+
+        int[] types = new int[nLeaves];
+        double[] times = new double[nLeaves];
+        String[] names = new String[nLeaves];
+        for (int l=0; l<nLeaves; l++) {
+            types[l] = leafTypes.get(l);
+            times[l] = leafTimes.get(l);
+            names[l] = leafNames.get(l);
         }
-    }
 
-    /**
-     * Generates tree using the specified list of active leaf nodes using the
-     * structured coalescent.
-     *
-     * @param activeNodes
-     * @return Root node of generated tree.
-     */
-    private MultiTypeNode simulateTree() throws Exception {
-
-        // Initialise node creation counter:
-        int nextNodeNr = 0;
-
-        // Initialise node lists:
-        List<List<MultiTypeNode>> activeNodes = Lists.newArrayList();
-        List<List<MultiTypeNode>> inactiveNodes = Lists.newArrayList();
-        for (int i = 0; i < migModel.getNTypes(); i++) {
-            activeNodes.add(new ArrayList<>());
-            inactiveNodes.add(new ArrayList<>());
-        }
-
-        // Add nodes to inactive nodes list:
-        for (int l = 0; l < nLeaves; l++) {
-            MultiTypeNode node = new MultiTypeNode();
-            node.setNr(nextNodeNr);
-            node.setID(leafNames.get(l));
-            inactiveNodes.get(leafTypes.get(l)).add(node);
-            node.setHeight(leafTimes.get(l));
-            node.setNodeType(leafTypes.get(l));
-
-            nextNodeNr++;
-        }
-        
-        // Sort nodes in inactive nodes lists in order of increasing age:
-        for (int i=0; i<migModel.getNTypes(); i++) {
-            Collections.sort(inactiveNodes.get(i),
-                (MultiTypeNode node1, MultiTypeNode node2) -> {
-                    double dt = node1.getHeight()-node2.getHeight();
-                    if (dt<0)
-                        return -1;
-                    if (dt>0)
-                        return 1;
-                    
-                    return 0;
-                });
-        }
-
-        // Allocate propensity lists:
-        List<List<Double>> migrationProp = new ArrayList<>();
-        List<Double> coalesceProp = new ArrayList<>();
-        for (int i = 0; i < migModel.getNTypes(); i++) {
-            coalesceProp.add(0.0);
-            migrationProp.add(new ArrayList<>());
-            for (int j = 0; j < migModel.getNTypes(); j++)
-                migrationProp.get(i).add(0.0);
-        }
-
-        double t = 0.0;
+        RandomSource random;
+        if (privateRandomStreamInput.get()) {
+            if (getID() == null)
+                throw new IllegalArgumentException("Simulated trees using a "
+                        + "private random stream must have an ID.");
+            random = RandomSource.forKey(getID());
+        } else
+            random = RandomSource.GLOBAL;
+
+        StructuredCoalescentSimulator simulator =
+                new StructuredCoalescentSimulator(migModel.getSnapshot());
+
+        // Construct tree, writing each tree generated to disk if requested
+        MultiTypeNode newRoot;
+        if (outputFileNameInput.get() == null) {
+            newRoot = simulator.simulate(types, times, names, random);
+        } else {
+            simulator.setNodeReuse(true);
+            try (PrintStream pstream = openOutputStream(outputFileNameInput.get())) {
+                pstream.println("#nexus\nbegin trees;");
 
-        while (totalNodesRemaining(activeNodes)>1
-                || totalNodesRemaining(inactiveNodes)>0) {
+                newRoot = null;
+                for (int i=0; i<nTrees; i++) {
+                    newRoot = simulator.simulate(types, times, names, random);
 
-            // Step 1: Calculate propensities.
-            double totalProp = updatePropensities(migrationProp, coalesceProp,
-                    activeNodes);
-            
-            // Step 2: Determine next event.
-            SCEvent event = getNextEvent(migrationProp, coalesceProp,
-                    totalProp, t);
-
-            // Step 3: Handle activation of nodes:
-            MultiTypeNode nextNode = null;
-            int nextNodeType = -1;
-            double nextTime = Double.POSITIVE_INFINITY;
-            for (int i=0; i<migModel.getNTypes(); i++) {
-                if (inactiveNodes.get(i).isEmpty())
-                    continue;
-                
-                if (inactiveNodes.get(i).get(0).getHeight()<nextTime) {
-                    nextNode = inactiveNodes.get(i).get(0);
-                    nextTime = nextNode.getHeight();
-                    nextNodeType = i;
+                    pstream.append("tree TREE_").append(String.valueOf(i+1))
+                            .append(" = ");
+                    printTypedNewick(pstream, newRoot, simulator.getNodes(),
+                            simulator.getNodeCount());
+                    pstream.println(";");
                 }
-            }
-            if (nextTime < event.time) {
-                t = nextTime;
-                activeNodes.get(nextNodeType).add(nextNode);
-                inactiveNodes.get(nextNodeType).remove(0);
-                continue;
-            }
-            
-            // Step 4: Place event on tree.
-            nextNodeNr = updateTree(activeNodes, event, nextNodeNr);
-
-            // Step 5: Keep track of time increment.
-            t = event.time;
-        }
-
-        // Return sole remaining active node as root:
-        for (List<MultiTypeNode> nodeList : activeNodes)
-            if (!nodeList.isEmpty())
-                return nodeList.get(0);
-
-        // Should not fall through.
-        throw new Exception("No active nodes remaining end of "
-                + "structured coalescent simulation!");
-    }
-
-    /**
-     * Obtain propensities (instantaneous reaction rates) for coalescence and
-     * migration events.
-     *
-     * @param migrationProp
-     * @param coalesceProp
-     * @param activeNodes
-     * @return Total reaction propensity.
-     */
-    private double updatePropensities(List<List<Double>> migrationProp,
-            List<Double> coalesceProp, List<List<MultiTypeNode>> activeNodes) {
-
-        double totalProp = 0.0;
-
-        for (int i = 0; i < migrationProp.size(); i++) {
 
-            double N = migModel.getPopSize(i);
-            int k = activeNodes.get(i).size();
-
-            coalesceProp.set(i, k * (k - 1) / (2.0 * N));
-            totalProp += coalesceProp.get(i);
-
-            for (int j = 0; j < migrationProp.size(); j++) {
-
-                if (j == i)
-                    continue;
-
-                double m = migModel.getRate(i, j);
-
-                migrationProp.get(i).set(j, k * m);
-                totalProp += migrationProp.get(i).get(j);
+                pstream.println("end;");
+                if (pstream.checkError())
+                    throw new IOException("Error writing simulated trees to "
+                            + outputFileNameInput.get());
             }
         }
 
-        return totalProp;
-
-    }
-
-    /**
-     * Calculate total number of active nodes remaining.
-     *
-     * @param activeNodes
-     * @return Number of active nodes remaining.
-     */
-    private int totalNodesRemaining(List<List<MultiTypeNode>> activeNodes) {
-        int result = 0;
-
-        for (List<MultiTypeNode> nodeList : activeNodes)
-            result += nodeList.size();
-
-        return result;
+        this.root = newRoot;
+        this.root.parent = null;
+        this.nodeCount = this.root.getNodeCount();
+        this.internalNodeCount = this.root.getInternalNodeCount();
+        this.leafNodeCount = this.root.getLeafNodeCount();
+        initArrays();
     }
 
     /**
-     * Obtain type and location of next reaction.
+     * Open buffered stream for simulated tree output, compressing it if
+     * the file name ends in .gz.
      *
-     * @param migrateProp Current migration propensities.
-     * @param coalesceProp Current coalescence propensities.
-     * @param t Current time.
-     * @return Event object describing next event.
+     * @param fileName name of output file
+     * @return print stream
+     * @throws IOException
      */
-    private SCEvent getNextEvent(List<List<Double>> migrateProp,
-            List<Double> coalesceProp, double totalProp, double t)
-            throws Exception {
-
-        // Get time of next event:
-        if (totalProp>0.0)
-            t += Randomizer.nextExponential(totalProp);
+    private PrintStream openOutputStream(String fileName) throws IOException {
+        OutputStream ostream = new FileOutputStream(fileName);
+        if (fileName.endsWith(".gz"))
+            ostream = new GZIPOutputStream(ostream, 1 << 16);
         else
-            return new NullEvent();
-
-        // Select event type:
-        double U = Randomizer.nextDouble() * totalProp;
-        for (int i = 0; i < migrateProp.size(); i++) {
-
-            if (U < coalesceProp.get(i))
-                return new CoalescenceEvent(i, t);
-            else
-                U -= coalesceProp.get(i);
-
-            for (int j = 0; j < migrateProp.size(); j++) {
-
-                if (j == i)
-                    continue;
-
-                if (U < migrateProp.get(i).get(j))
-                    return new MigrationEvent(i, j, t);
-                else
-                    U -= migrateProp.get(i).get(j);
-            }
-        }
-
-        // Loop should not fall through.
-        throw new Exception("Structured coalescenct event selection error.");
-
-    }
+            ostream = new BufferedOutputStream(ostream, 1 << 16);
 
-    /**
-     * Update tree with result of latest event.
-     *
-     * @param activeNodes
-     * @param event
-     * @param nextNodeNr Integer identifier of last node added to tree.
-     * @return Updated nextNodeNr.
-     */
-    private int updateTree(List<List<MultiTypeNode>> activeNodes, SCEvent event,
-            int nextNodeNr) {
-
-        if (event instanceof CoalescenceEvent) {
-
-            // Randomly select node pair with chosen colour:
-            MultiTypeNode daughter = selectRandomNode(activeNodes.get(event.fromType));
-            MultiTypeNode son = selectRandomSibling(
-                    activeNodes.get(event.fromType), daughter);
-
-            // Create new parent node with appropriate ID and time:
-            MultiTypeNode parent = new MultiTypeNode();
-            parent.setNr(nextNodeNr);
-            parent.setID(String.valueOf(nextNodeNr));
-            parent.setHeight(event.time);
-            nextNodeNr++;
-
-            // Connect new parent to children:
-            parent.setLeft(daughter);
-            parent.setRight(son);
-            son.setParent(parent);
-            daughter.setParent(parent);
-
-            // Ensure new parent is set to correct colour:
-            parent.setNodeType(event.fromType);
-
-            // Update activeNodes:
-            activeNodes.get(event.fromType).remove(son);
-            int idx = activeNodes.get(event.fromType).indexOf(daughter);
-            activeNodes.get(event.fromType).set(idx, parent);
-
-        } else {
-
-            // Randomly select node with chosen colour:
-            MultiTypeNode migrator = selectRandomNode(activeNodes.get(event.fromType));
-
-            // Record colour change in change lists:
-            migrator.addChange(event.toType, event.time);
-
-            // Update activeNodes:
-            activeNodes.get(event.fromType).remove(migrator);
-            activeNodes.get(event.toType).add(migrator);
-
-        }
-
-        return nextNodeNr;
-
-    }
-
-    /**
-     * Use beast RNG to select random node from list.
-     *
-     * @param nodeList
-     * @return A randomly selected node.
-     */
-    private MultiTypeNode selectRandomNode(List<MultiTypeNode> nodeList) {
-        return nodeList.get(Randomizer.nextInt(nodeList.size()));
+        return new PrintStream(ostream, false);
     }
 
-    /**
-     * Return random node from list, excluding given node.
-     *
-     * @param nodeList
-     * @param node
-     * @return Randomly selected node.
-     */
-    private MultiTypeNode selectRandomSibling(List<MultiTypeNode> nodeList, Node node) {
-
-        int n = Randomizer.nextInt(nodeList.size() - 1);
-        int idxToAvoid = nodeList.indexOf(node);
-        if (n >= idxToAvoid)
-            n++;
-
-        return nodeList.get(n);
-    }
-    
     @Override
     public void initStateNodes() throws Exception { }
 
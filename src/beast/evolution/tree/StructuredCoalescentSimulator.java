@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import java.util.Arrays;
+
+/**
+ * Gillespie simulator for multi-type trees under the structured coalescent
+ * with fixed migration rates and population sizes.  Independent of the
+ * BEAST object framework, so that many trees can be generated cheaply
+ * (and, using separate instances and random sources, concurrently).
+ *
+ * Active lineages of each type are held in pools from which they are
+ * removed by swapping in the last element, and propensities are held per
+ * type so that only those of the types affected by an event need
+ * recomputing.  Each event therefore costs O(nTypes) regardless of the
+ * number of active lineages.
+ *
+ * Alongside the tree, each simulation records its length and the number
+ * of type changes away from each type.
+ *
+ * When node reuse is enabled, the nodes of each tree are recycled to build
+ * the next, so that generating a long sequence of trees (for instance to
+ * stream them to a file) does not allocate.
+ *
+ * @author agent
+ */
+public class StructuredCoalescentSimulator {
+
+    private final MigrationModelSnapshot model;
+    private final int nTypes;
+
+    private RandomSource random;
+
+    private MultiTypeNode[][] lineagePools;
+    private final int[] lineageCounts;
+    private final double[] coalesceProp, migrateProp;
+    private int nActiveLineages;
+
+    private double treeLength;
+    private final int[] changeCounts;
+
+    // Nodes of most recently simulated tree, indexed by node number.
+    private MultiTypeNode[] nodes = new MultiTypeNode[0];
+    private int nNodes;
+    private boolean reuseNodes = false;
+
+    /**
+     * Create simulator.
+     *
+     * @param model fixed migration model parameters
+     */
+    public StructuredCoalescentSimulator(MigrationModelSnapshot model) {
+        this.model = model;
+        nTypes = model.getNTypes();
+
+        lineagePools = new MultiTypeNode[nTypes][16];
+        lineageCounts = new int[nTypes];
+        coalesceProp = new double[nTypes];
+        migrateProp = new double[nTypes];
+        changeCounts = new int[nTypes];
+    }
+
+    /**
+     * Enable or disable node reuse.  When enabled, each call to simulate()
+     * invalidates the tree returned by the previous call.
+     *
+     * @param reuseNodes true to recycle nodes between simulations
+     */
+    public void setNodeReuse(boolean reuseNodes) {
+        this.reuseNodes = reuseNodes;
+    }
+
+    /**
+     * Simulate a tree.  Leaf i is numbered i; internal nodes are numbered
+     * in order of creation.
+     *
+     * @param leafTypes types of leaves
+     * @param leafTimes sampling times (heights) of leaves
+     * @param leafNames IDs of leaves, or null to use leaf numbers
+     * @param random source of random numbers
+     * @return Root node of generated tree.
+     */
+    public MultiTypeNode simulate(int[] leafTypes, double[] leafTimes,
+            String[] leafNames, RandomSource random) {
+
+        this.random = random;
+        int nLeaves = leafTypes.length;
+
+        if (!reuseNodes || nodes.length < 2*nLeaves-1)
+            nodes = new MultiTypeNode[Math.max(1, 2*nLeaves-1)];
+
+        // Initialise node creation counter:
+        int nextNodeNr = 0;
+
+        // Create leaf nodes:
+        MultiTypeNode[] leaves = new MultiTypeNode[nLeaves];
+        for (int l = 0; l < nLeaves; l++) {
+            MultiTypeNode node = obtainNode(nextNodeNr);
+            node.setID(leafNames != null ? leafNames[l] : String.valueOf(l));
+            node.setHeight(leafTimes[l]);
+            node.setNodeType(leafTypes[l]);
+            leaves[l] = node;
+
+            nextNodeNr++;
+        }
+
+        // Order leaves by increasing age, breaking ties by type:
+        Arrays.sort(leaves, (MultiTypeNode node1, MultiTypeNode node2) -> {
+            int cmp = Double.compare(node1.getHeight(), node2.getHeight());
+            if (cmp != 0)
+                return cmp;
+            return Integer.compare(node1.getNodeType(), node2.getNodeType());
+        });
+        int nextLeaf = 0;
+
+        // Reset lineage pools and propensities:
+        for (int i = 0; i < nTypes; i++)
+            Arrays.fill(lineagePools[i], 0, lineageCounts[i], null);
+        Arrays.fill(lineageCounts, 0);
+        Arrays.fill(coalesceProp, 0.0);
+        Arrays.fill(migrateProp, 0.0);
+        nActiveLineages = 0;
+
+        treeLength = 0.0;
+        Arrays.fill(changeCounts, 0);
+
+        double t = 0.0;
+
+        while (nActiveLineages>1 || nextLeaf<nLeaves) {
+
+            // Step 1: Obtain total propensity.
+            double totalProp = 0.0;
+            for (int i = 0; i < nTypes; i++)
+                totalProp += coalesceProp[i] + migrateProp[i];
+
+            // Step 2: Determine time of next event.
+            double eventTime = totalProp>0.0
+                    ? t + random.nextExponential(totalProp)
+                    : Double.POSITIVE_INFINITY;
+
+            // Step 3: Handle activation of nodes:
+            if (nextLeaf<nLeaves && leaves[nextLeaf].getHeight() < eventTime) {
+                double leafTime = leaves[nextLeaf].getHeight();
+                if (nActiveLineages>0)
+                    treeLength += nActiveLineages*(leafTime - t);
+                t = leafTime;
+                addLineage(leaves[nextLeaf]);
+                nextLeaf += 1;
+                continue;
+            }
+
+            treeLength += nActiveLineages*(eventTime - t);
+
+            // Step 4: Select event and place it on tree.
+            nextNodeNr = implementEvent(random.nextDouble()*totalProp,
+                    eventTime, nextNodeNr);
+
+            // Step 5: Keep track of time increment.
+            t = eventTime;
+        }
+        nNodes = nextNodeNr;
+
+        // Return sole remaining active node as root:
+        for (int i = 0; i < nTypes; i++)
+            if (lineageCounts[i]>0)
+                return lineagePools[i][0];
+
+        // Should not fall through.
+        throw new IllegalStateException("No active nodes remaining end of "
+                + "structured coalescent simulation!");
+    }
+
+    /**
+     * Obtain a node with the given number, either recycled from the
+     * previous tree or newly created.
+     *
+     * @param nr node number
+     * @return node with no parent, children or type changes
+     */
+    private MultiTypeNode obtainNode(int nr) {
+        MultiTypeNode node = nodes[nr];
+        if (node == null) {
+            node = new MultiTypeNode();
+            nodes[nr] = node;
+        } else {
+            node.parent = null;
+            node.children.clear();
+            node.clearChanges();
+            node.metaDataString = null;
+        }
+        node.setNr(nr);
+
+        return node;
+    }
+
+    /**
+     * @return nodes of most recently simulated tree, indexed by node
+     * number.  Only the first getNodeCount() elements are valid.
+     */
+    public MultiTypeNode[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return number of nodes in most recently simulated tree
+     */
+    public int getNodeCount() {
+        return nNodes;
+    }
+
+    /**
+     * @return total branch length of most recently simulated tree
+     */
+    public double getTreeLength() {
+        return treeLength;
+    }
+
+    /**
+     * @param type lineage type
+     * @return number of type changes away from type (i.e. changes with type
+     * below the change) in most recently simulated tree
+     */
+    public int getChangeCount(int type) {
+        return changeCounts[type];
+    }
+
+    /**
+     * Select the event identified by U, a uniform variate on [0,totalProp),
+     * and apply it to the lineage pools.
+     *
+     * @param U selection variate
+     * @param time time of event
+     * @param nextNodeNr Integer identifier of next node to be created.
+     * @return Updated nextNodeNr.
+     */
+    private int implementEvent(double U, double time, int nextNodeNr) {
+
+        for (int i = 0; i < nTypes; i++) {
+
+            if (U < coalesceProp[i])
+                return coalesce(i, time, nextNodeNr);
+            else
+                U -= coalesceProp[i];
+
+            if (U < migrateProp[i]) {
+                // Divide out the lineage count to select destination:
+                U /= lineageCounts[i];
+                for (int j = 0; j < nTypes; j++) {
+                    if (j == i)
+                        continue;
+
+                    if (U < model.getRate(i, j)) {
+                        migrate(i, j, time);
+                        return nextNodeNr;
+                    } else
+                        U -= model.getRate(i, j);
+                }
+
+                // Rounding may leave U just above the final rate.
+                for (int j = nTypes-1; j >= 0; j--) {
+                    if (j != i && model.getRate(i, j)>0.0) {
+                        migrate(i, j, time);
+                        return nextNodeNr;
+                    }
+                }
+            } else
+                U -= migrateProp[i];
+        }
+
+        // Loop should not fall through.
+        throw new IllegalStateException("Structured coalescent event selection error.");
+    }
+
+    /**
+     * Coalesce a random pair of lineages of the given type.
+     *
+     * @param type type of lineages
+     * @param time time of coalescence
+     * @param nextNodeNr Integer identifier of next node to be created.
+     * @return Updated nextNodeNr.
+     */
+    private int coalesce(int type, double time, int nextNodeNr) {
+        MultiTypeNode[] pool = lineagePools[type];
+        int k = lineageCounts[type];
+
+        // Randomly select node pair with chosen colour:
+        int daughterIdx = random.nextInt(k);
+        int sonIdx = random.nextInt(k - 1);
+        if (sonIdx >= daughterIdx)
+            sonIdx++;
+
+        MultiTypeNode daughter = pool[daughterIdx];
+        MultiTypeNode son = pool[sonIdx];
+
+        // Create new parent node with appropriate ID and time:
+        MultiTypeNode parent = obtainNode(nextNodeNr);
+        parent.setID(String.valueOf(nextNodeNr));
+        parent.setHeight(time);
+        nextNodeNr++;
+
+        // Connect new parent to children:
+        parent.setLeft(daughter);
+        parent.setRight(son);
+        son.setParent(parent);
+        daughter.setParent(parent);
+
+        // Ensure new parent is set to correct colour:
+        parent.setNodeType(type);
+
+        // Parent replaces daughter, son is swapped out:
+        pool[daughterIdx] = parent;
+        pool[sonIdx] = pool[k-1];
+        pool[k-1] = null;
+        lineageCounts[type] -= 1;
+        nActiveLineages -= 1;
+        updatePropensities(type);
+
+        return nextNodeNr;
+    }
+
+    /**
+     * Move a random lineage of type fromType to toType.
+     *
+     * @param fromType type of migrating lineage (below change)
+     * @param toType type of migrating lineage (above change)
+     * @param time time of migration
+     */
+    private void migrate(int fromType, int toType, double time) {
+        MultiTypeNode[] pool = lineagePools[fromType];
+        int k = lineageCounts[fromType];
+
+        // Randomly select node with chosen colour:
+        int idx = random.nextInt(k);
+        MultiTypeNode migrator = pool[idx];
+
+        // Record colour change in change lists:
+        migrator.addChange(toType, time);
+        changeCounts[fromType] += 1;
+
+        // Update lineage pools:
+        pool[idx] = pool[k-1];
+        pool[k-1] = null;
+        lineageCounts[fromType] -= 1;
+        nActiveLineages -= 1;
+        updatePropensities(fromType);
+
+        addLineage(migrator);
+    }
+
+    /**
+     * Add lineage to the pool corresponding to its current final type.
+     *
+     * @param node node at base of lineage
+     */
+    private void addLineage(MultiTypeNode node) {
+        int type = node.getFinalType();
+        if (lineageCounts[type] == lineagePools[type].length)
+            lineagePools[type] = Arrays.copyOf(lineagePools[type],
+                    2*lineagePools[type].length);
+
+        lineagePools[type][lineageCounts[type]++] = node;
+        nActiveLineages += 1;
+        updatePropensities(type);
+    }
+
+    /**
+     * Recompute coalescence and total outgoing migration propensities for
+     * lineages of the given type.
+     *
+     * @param type lineage type
+     */
+    private void updatePropensities(int type) {
+        int k = lineageCounts[type];
+        coalesceProp[type] = k * (k - 1.0) / 2.0 * model.getInvPopSize(type);
+        migrateProp[type] = k * model.getOutRate(type);
+    }
+}
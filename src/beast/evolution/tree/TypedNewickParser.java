@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass parser for typed Newick strings in which type changes are
+ * represented by single-child nodes, as produced by the flattened-tree
+ * writers of MultiTypeTree.  Builds MultiTypeNodes and their change arrays
+ * directly, without constructing an intermediate flat tree.  Parsing is
+ * iterative, so deeply nested change chains don't exhaust the stack.
+ *
+ * Node heights are computed from branch lengths in the same way as
+ * TreeParser does when adjustTipHeights is false, so that the youngest
+ * leaf ends up at height zero.
+ *
+ * @author agent
+ */
+class TypedNewickParser {
+
+    private final MultiTypeTree mtTree;
+    private final String newick;
+    private final int offset;
+    private int pos;
+
+    // Parsed Newick nodes in pre-order.
+    private int nNodes;
+    private int[] parents, childCounts, types, leafNrs;
+    private double[] lengths;
+    private String[] leafLabels;
+
+    /**
+     * Create parser for the given string.
+     *
+     * @param mtTree tree whose type label and type names are used
+     * @param newick typed Newick string
+     * @param offset amount subtracted from leaf labels to give leaf numbers
+     */
+    TypedNewickParser(MultiTypeTree mtTree, String newick, int offset) {
+        this.mtTree = mtTree;
+        this.newick = newick;
+        this.offset = offset;
+    }
+
+    /**
+     * Parse the string.
+     *
+     * @return root of new multi-type tree, with leaf numbers and IDs set
+     */
+    MultiTypeNode parse() {
+        allocate(Math.max(16, newick.length()/8));
+        nNodes = 0;
+        pos = 0;
+
+        int current = -1;
+        boolean expectSubtree = true;
+
+        while (true) {
+            skipWhitespace();
+            if (pos >= newick.length() || newick.charAt(pos) == ';')
+                break;
+
+            char c = newick.charAt(pos);
+            if (c == '(') {
+                current = newNode(current);
+                pos += 1;
+                expectSubtree = true;
+            } else if (c == ',') {
+                pos += 1;
+                expectSubtree = true;
+            } else if (c == ')') {
+                if (current < 0)
+                    throw error("Unbalanced parentheses");
+                pos += 1;
+                parseLabel();
+                parseNodeAttributes(current);
+                current = parents[current];
+                expectSubtree = false;
+            } else if (expectSubtree) {
+                int leaf = newNode(current);
+                String label = parseLabel();
+                if (label.isEmpty())
+                    throw error("Missing leaf label");
+                leafLabels[leaf] = label;
+                try {
+                    leafNrs[leaf] = Integer.parseInt(label) - offset;
+                } catch (NumberFormatException ex) {
+                    throw error("Non-numeric leaf label '" + label + "'");
+                }
+                parseNodeAttributes(leaf);
+                expectSubtree = false;
+            } else
+                throw error("Unexpected character '" + c + "'");
+        }
+
+        if (current >= 0 || nNodes == 0)
+            throw error("Incomplete tree");
+
+        return buildTree();
+    }
+
+    /**
+     * Assemble multi-type nodes from the parsed Newick nodes.  Chains of
+     * single-child nodes become type changes on the branch above the
+     * first non-single-child node below them.
+     *
+     * @return root node
+     */
+    private MultiTypeNode buildTree() {
+
+        // Heights from lengths, as computed by TreeParser:
+        double[] heights = new double[nNodes];
+        double minLeafHeight = Double.POSITIVE_INFINITY;
+        for (int i=0; i<nNodes; i++) {
+            double parentHeight = parents[i]<0 ? 0.0 : heights[parents[i]];
+            heights[i] = parentHeight - lengths[i];
+            if (childCounts[i] == 0)
+                minLeafHeight = Math.min(minLeafHeight, heights[i]);
+        }
+        for (int i=0; i<nNodes; i++)
+            heights[i] += -minLeafHeight;
+
+        MultiTypeNode[] mtNodes = new MultiTypeNode[nNodes];
+        MultiTypeNode root = null;
+        for (int i=0; i<nNodes; i++) {
+            if (childCounts[i] == 1)
+                continue;
+
+            MultiTypeNode mtNode = new MultiTypeNode();
+            mtNode.setHeight(heights[i]);
+            mtNode.setNodeType(types[i]);
+            if (childCounts[i] == 0) {
+                mtNode.setNr(leafNrs[i]);
+                mtNode.setID(leafLabels[i]);
+            }
+            mtNodes[i] = mtNode;
+
+            // Changes are encountered youngest first, as required:
+            int p = parents[i];
+            while (p>=0 && childCounts[p] == 1) {
+                mtNode.addChange(types[p], heights[p]);
+                p = parents[p];
+            }
+
+            if (p<0)
+                root = mtNode;
+            else
+                mtNodes[p].addChild(mtNode);
+        }
+
+        return root;
+    }
+
+    private int newNode(int parent) {
+        if (nNodes == parents.length)
+            allocate(2*parents.length);
+
+        parents[nNodes] = parent;
+        childCounts[nNodes] = 0;
+        types[nNodes] = 0;
+        lengths[nNodes] = 0.0;
+        leafLabels[nNodes] = null;
+        if (parent>=0)
+            childCounts[parent] += 1;
+
+        return nNodes++;
+    }
+
+    private void allocate(int capacity) {
+        if (parents == null) {
+            parents = new int[capacity];
+            childCounts = new int[capacity];
+            types = new int[capacity];
+            leafNrs = new int[capacity];
+            lengths = new double[capacity];
+            leafLabels = new String[capacity];
+        } else {
+            parents = Arrays.copyOf(parents, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            types = Arrays.copyOf(types, capacity);
+            leafNrs = Arrays.copyOf(leafNrs, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            leafLabels = Arrays.copyOf(leafLabels, capacity);
+        }
+    }
+
+    /**
+     * Parse (possibly empty) node label.
+     *
+     * @return label
+     */
+    private String parseLabel() {
+        skipWhitespace();
+        int start = pos;
+        while (pos < newick.length()) {
+            char c = newick.charAt(pos);
+            if (c == '[' || c == ':' || c == ',' || c == ')' || c == '('
+                    || c == ';' || Character.isWhitespace(c))
+                break;
+            pos += 1;
+        }
+        return newick.substring(start, pos);
+    }
+
+    /**
+     * Parse optional metadata block and branch length following a node.
+     *
+     * @param node index of node
+     */
+    private void parseNodeAttributes(int node) {
+        skipWhitespace();
+        if (pos < newick.length() && newick.charAt(pos) == '[') {
+            int end = newick.indexOf(']', pos);
+            if (end < 0)
+                throw error("Unterminated metadata");
+            parseMetaData(node, pos+1, end);
+            pos = end+1;
+        }
+
+        skipWhitespace();
+        if (pos < newick.length() && newick.charAt(pos) == ':') {
+            pos += 1;
+            skipWhitespace();
+            int start = pos;
+            while (pos < newick.length()) {
+                char c = newick.charAt(pos);
+                if (c == ',' || c == ')' || c == ';' || c == '['
+                        || Character.isWhitespace(c))
+                    break;
+                pos += 1;
+            }
+            try {
+                lengths[node] = Double.parseDouble(newick.substring(start, pos));
+            } catch (NumberFormatException ex) {
+                throw error("Invalid branch length");
+            }
+        }
+    }
+
+    /**
+     * Extract type from comma-delimited key=value metadata, ignoring any
+     * leading ampersand and keys other than the tree's type label.  Type
+     * values may be either type indices or quoted type names.
+     */
+    private void parseMetaData(int node, int start, int end) {
+        String typeLabel = mtTree.getTypeLabel();
+
+        int entryStart = start;
+        if (entryStart < end && newick.charAt(entryStart) == '&')
+            entryStart += 1;
+
+        while (entryStart < end) {
+            int entryEnd = newick.indexOf(',', entryStart);
+            if (entryEnd < 0 || entryEnd > end)
+                entryEnd = end;
+
+            int eq = newick.indexOf('=', entryStart);
+            if (eq > 0 && eq < entryEnd
+                    && newick.substring(entryStart, eq).trim().equals(typeLabel)) {
+                String value = newick.substring(eq+1, entryEnd).trim();
+                if (value.startsWith("\"") && value.endsWith("\"") && value.length()>1) {
+                    types[node] = mtTree.getTypeFromString(
+                            value.substring(1, value.length()-1));
+                } else {
+                    try {
+                        types[node] = (int) Math.round(Double.parseDouble(value));
+                    } catch (NumberFormatException ex) {
+                        types[node] = mtTree.getTypeFromString(value);
+                    }
+                }
+                if (types[node] < 0)
+                    throw error("Unknown type '" + value + "'");
+            }
+
+            entryStart = entryEnd+1;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < newick.length() && Character.isWhitespace(newick.charAt(pos)))
+            pos += 1;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message
+                + " at position " + pos + " of typed Newick string.");
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package beast.evolution.tree;
+
+import java.util.Arrays;
+
+/**
+ * Cache of the columns R^n e_j of powers of a uniformized transition
+ * matrix R.  Uniformization only ever conditions on a single end type j
+ * at a time, so rather than full matrix powers we store, for each end type
+ * separately, the sequence of column vectors obtained by repeated
+ * matrix-vector multiplication.  Columns are computed on demand and held
+ * in flat arrays whose total size is bounded: when the bound would be
+ * exceeded, the columns of other end types are discarded.  Products are
+ * computed either with a dense copy of R or, when R is mostly zeros,
+ * directly from its sparse representation.
+ *
+ * @author agent
+ */
+class UniformizedPowerCache {
+
+    private final int n;
+    private final double[] R;
+    private SparseRateMatrix Rsparse;
+    private final long maxElements;
+    private long nElements;
+
+    // Powers R^0 e_j, R^1 e_j, ... stored consecutively for each j:
+    private final double[][] cols;
+    private final int[] nPowers;
+    private final boolean[] steady;
+
+    /**
+     * Create new cache.
+     *
+     * @param nTypes number of types
+     * @param maxElements soft bound on total number of cached elements
+     */
+    UniformizedPowerCache(int nTypes, long maxElements) {
+        n = nTypes;
+        this.maxElements = maxElements;
+        R = new double[n*n];
+        cols = new double[n][];
+        nPowers = new int[n];
+        steady = new boolean[n];
+    }
+
+    /**
+     * Discard cached powers and set new matrix, retaining storage.
+     *
+     * @param Rmat new uniformized transition matrix
+     * @param useSparse if true, use sparse matrix-vector products
+     */
+    void reset(SparseRateMatrix Rmat, boolean useSparse) {
+        if (useSparse) {
+            Rsparse = Rmat;
+        } else {
+            Rsparse = null;
+            Arrays.fill(R, 0.0);
+            for (int i=0; i<n; i++)
+                for (int k=Rmat.getRowStart(i); k<Rmat.getRowEnd(i); k++)
+                    R[i*n+Rmat.getColumn(k)] = Rmat.getValue(k);
+        }
+
+        Arrays.fill(nPowers, 0);
+        Arrays.fill(steady, false);
+    }
+
+    /**
+     * Obtain element (typeStart, typeEnd) of R^power.
+     *
+     * @param power
+     * @param typeStart
+     * @param typeEnd
+     * @return matrix power element
+     */
+    double get(int power, int typeStart, int typeEnd) {
+        ensurePower(power, typeEnd);
+
+        if (power>=nPowers[typeEnd])
+            power = nPowers[typeEnd]-1;
+
+        return cols[typeEnd][power*n + typeStart];
+    }
+
+    /**
+     * @param typeEnd
+     * @return Power above which column typeEnd of R^n is known to be
+     * steady, or -1 if this is not (yet) known.
+     */
+    int getSteadyN(int typeEnd) {
+        return steady[typeEnd] ? nPowers[typeEnd] : -1;
+    }
+
+    private void ensurePower(int power, int j) {
+        if (power<nPowers[j] || steady[j])
+            return;
+
+        int needed = (power+1)*n;
+        int oldLength = cols[j] == null ? 0 : cols[j].length;
+        if (needed>oldLength) {
+            int newLength = Math.max(needed, 2*oldLength);
+            if (nElements + newLength - oldLength > maxElements) {
+                for (int jp=0; jp<n; jp++) {
+                    if (jp != j && cols[jp] != null) {
+                        nElements -= cols[jp].length;
+                        cols[jp] = null;
+                        nPowers[jp] = 0;
+                        steady[jp] = false;
+                    }
+                }
+                newLength = (int)Math.max(needed,
+                        Math.min(newLength, maxElements - nElements + oldLength));
+            }
+
+            cols[j] = oldLength == 0
+                    ? new double[newLength]
+                    : Arrays.copyOf(cols[j], newLength);
+            nElements += newLength - oldLength;
+        }
+
+        double[] col = cols[j];
+        if (nPowers[j] == 0) {
+            Arrays.fill(col, 0, n, 0.0);
+            col[j] = 1.0;
+            nPowers[j] = 1;
+        }
+
+        // R^p e_j = R (R^(p-1) e_j)
+        for (int p=nPowers[j]; p<=power; p++) {
+            int prev = (p-1)*n, cur = p*n;
+            boolean changed = false;
+            if (Rsparse != null) {
+                Rsparse.multiply(col, prev, col, cur);
+                for (int i=0; i<n; i++) {
+                    if (col[cur+i] != col[prev+i]) {
+                        changed = true;
+                        break;
+                    }
+                }
+            } else {
+                for (int i=0; i<n; i++) {
+                    double sum = 0.0;
+                    for (int k=0; k<n; k++)
+                        sum += R[i*n+k]*col[prev+k];
+                    col[cur+i] = sum;
+                    if (sum != col[prev+i])
+                        changed = true;
+                }
+            }
+            nPowers[j] = p+1;
+
+            if (!changed) {
+                steady[j] = true;
+                return;
+            }
+        }
+    }
+}
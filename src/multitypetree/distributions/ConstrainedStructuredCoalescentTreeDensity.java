@@ -18,6 +18,7 @@ package multitypetree.distributions;
 
 import beast.core.*;
 import beast.core.parameter.IntegerParameter;
+import beast.evolution.tree.MigrationModelSnapshot;
 
 import java.util.*;
 
@@ -66,18 +67,21 @@ public class ConstrainedStructuredCoalescentTreeDensity extends StructuredCoales
 
         // Note that the first event is always a sample. We begin at the first
         // _interval_ and the event following that interval.
-        for (int eventIdx = 1; eventIdx<eventList.size(); eventIdx++) {
-
-            SCEvent event = eventList.get(eventIdx);
-            Integer[] lineageCount = lineageCountList.get(eventIdx);
-            double delta_t = event.time - eventList.get(eventIdx - 1).time;
+        int nTypes = events.getNTypes();
+        MigrationModelSnapshot model = migrationModel.getSnapshot();
+        for (int eventIdx = 1; eventIdx<events.size(); eventIdx++) {
+
+            int eventType = events.getType(eventIdx);
+            int eventDestType = events.getDestType(eventIdx);
+            double eventTime = events.getTime(eventIdx);
+            double delta_t = eventTime - events.getTime(eventIdx - 1);
             boolean isValidMigration = true;
 
                for(int i =0; i< fromTypes.size(); i++){
                  Integer currentFromType = fromTypes.get(i);
                  Integer currentToType = toTypes.get(i);
 
-                   if(currentFromType== event.type && currentToType==event.destType && migrationTime<event.time){
+                   if(currentFromType== eventType && currentToType==eventDestType && migrationTime<eventTime){
                        isValidMigration=false;
                        break;
                    }
@@ -89,38 +93,29 @@ public class ConstrainedStructuredCoalescentTreeDensity extends StructuredCoales
                 logP=Double.NEGATIVE_INFINITY;
             }else if (delta_t>0) {
                 double lambda = 0.0;
-                for (int c = 0; c<lineageCount.length; c++) {
-                    int k = lineageCount[c];
-                    double Nc = migrationModel.getPopSize(c);
-                    lambda += k*(k-1)/(2.0*Nc);
-
-                    for (int cp = 0; cp<lineageCount.length; cp++) {
-                        if (cp==c)
-                            continue;
-
-                        double m = migrationModel.getRate(c, cp);
-                        lambda += k*m;
-                    }
+                for (int c = 0; c<nTypes; c++) {
+                    int k = events.getLineageCount(eventIdx, c);
+                    lambda += k*(k-1)/2.0*model.getInvPopSize(c)
+                            + k*model.getOutRate(c);
                 }
                 logP += -delta_t*lambda;
             }
 
             // Event contribution:
-            switch (event.kind) {
-                case COALESCE:
-                    double N = migrationModel.getPopSize(event.type);
-                    logP += Math.log(1.0/N);
+            switch (events.getKind(eventIdx)) {
+                case SCEventBuffer.COALESCE:
+                    logP += -model.getLogPopSize(eventType);
                     break;
 
-                case MIGRATE:
-                    double m = 0;
+                case SCEventBuffer.MIGRATE:
                     if(isValidMigration ){
-                        m = migrationModel.getRate(event.type, event.destType);
+                        logP += model.getLogRate(eventType, eventDestType);
+                    } else {
+                        logP = Double.NEGATIVE_INFINITY;
                     }
-                    logP += Math.log(m);
                     break;
 
-                case SAMPLE:
+                case SCEventBuffer.SAMPLE:
                     // Do nothing here: only effect of sampling event is
                     // to change the lineage counts in subsequent intervals.
                     break;
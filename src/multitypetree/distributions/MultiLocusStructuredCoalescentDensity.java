@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.distributions;
+
+import beast.core.Description;
+import beast.core.Distribution;
+import beast.core.Input;
+import beast.core.Input.Validate;
+import beast.core.State;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Joint density of several unlinked multi-type trees sharing a single
+ * migration model.  Each tree is assigned its own structured coalescent
+ * density, and only those densities whose tree or migration model has
+ * changed are re-evaluated.  These evaluations are distributed over a
+ * fork-join pool, while the per-tree results are always summed in input
+ * order so that the total does not depend on thread scheduling.
+ *
+ * The per-tree densities are not inputs and so are invisible to the
+ * State, which only sees this density.  Their dirtiness is therefore
+ * determined here, and store(), restore() and accept() are forwarded to
+ * them.
+ *
+ * @author agent
+ */
+@Description("Likelihood of several unlinked multi-type trees under the "
+        + "structured coalescent with a shared migration model.")
+public class MultiLocusStructuredCoalescentDensity extends Distribution {
+
+    public Input<List<MultiTypeTree>> mtTreesInput = new Input<>(
+            "multiTypeTree", "Multi-type tree, one per locus.",
+            new ArrayList<>(), Validate.REQUIRED);
+
+    public Input<MigrationModel> migrationModelInput = new Input<>(
+            "migrationModel", "Model of migration between demes.",
+            Validate.REQUIRED);
+
+    public Input<Boolean> checkValidityInput = new Input<>(
+            "checkValidity", "Explicitly check validity of colouring.  "
+            +"(Default false.)",
+            false);
+
+    public Input<Integer> threadsInput = new Input<>(
+            "threads", "Number of threads used to evaluate per-tree densities. "
+            + "Zero means use all available processors.  (Default 1.)",
+            1);
+
+    protected List<StructuredCoalescentTreeDensity> densities;
+    protected ForkJoinPool pool;
+
+    // Indices of densities requiring evaluation, valid only when
+    // requiresRecalculation() has been called since the last evaluation:
+    private int[] dirtyIdx;
+    private int nDirty;
+    private boolean dirtinessChecked;
+
+    public MultiLocusStructuredCoalescentDensity() { }
+
+    @Override
+    public void initAndValidate() throws Exception {
+
+        MigrationModel migrationModel = migrationModelInput.get();
+
+        densities = new ArrayList<>();
+        for (MultiTypeTree mtTree : mtTreesInput.get()) {
+            StructuredCoalescentTreeDensity density =
+                    new StructuredCoalescentTreeDensity();
+            density.initByName(
+                    "migrationModel", migrationModel,
+                    "multiTypeTree", mtTree,
+                    "checkValidity", checkValidityInput.get());
+            densities.add(density);
+        }
+
+        int nThreads = threadsInput.get();
+        if (nThreads<0)
+            throw new IllegalArgumentException("Number of threads must be "
+                    + "non-negative.");
+        if (nThreads==0)
+            nThreads = Runtime.getRuntime().availableProcessors();
+
+        if (nThreads>1 && densities.size()>1)
+            pool = new ForkJoinPool(nThreads);
+        else
+            pool = null;
+
+        dirtyIdx = new int[densities.size()];
+        dirtinessChecked = false;
+    }
+
+    @Override
+    public double calculateLogP() throws Exception {
+
+        // Without a preceding dirtiness check (e.g. on the first call)
+        // every density is evaluated:
+        if (!dirtinessChecked) {
+            for (int i=0; i<densities.size(); i++)
+                dirtyIdx[i] = i;
+            nDirty = densities.size();
+        }
+        dirtinessChecked = false;
+
+        // Bring the migration model's snapshot up to date here, so that
+        // the per-tree evaluations only ever read it:
+        migrationModelInput.get().getSnapshot();
+
+        if (pool != null && nDirty>1)
+            pool.invoke(new DensityTask(0, nDirty));
+        else {
+            for (int i=0; i<nDirty; i++)
+                densities.get(dirtyIdx[i]).calculateLogP();
+        }
+
+        logP = 0.0;
+        for (StructuredCoalescentTreeDensity density : densities)
+            logP += density.getCurrentLogP();
+
+        return logP;
+    }
+
+    @Override
+    protected boolean requiresRecalculation() {
+
+        boolean migrationModelDirty =
+                migrationModelInput.get().isDirtyCalculation();
+
+        nDirty = 0;
+        for (int i=0; i<densities.size(); i++) {
+            StructuredCoalescentTreeDensity density = densities.get(i);
+            if (migrationModelDirty || density.mtTree.somethingIsDirty()) {
+                // Called for its effect on the density's update flags:
+                density.requiresRecalculation();
+                dirtyIdx[nDirty++] = i;
+            }
+        }
+        dirtinessChecked = true;
+
+        return nDirty>0;
+    }
+
+    @Override
+    protected void store() {
+        for (StructuredCoalescentTreeDensity density : densities)
+            density.store();
+
+        super.store();
+    }
+
+    @Override
+    protected void restore() {
+        for (StructuredCoalescentTreeDensity density : densities)
+            density.restore();
+        dirtinessChecked = false;
+
+        super.restore();
+    }
+
+    @Override
+    protected void accept() {
+        for (StructuredCoalescentTreeDensity density : densities)
+            density.accept();
+        dirtinessChecked = false;
+
+        super.accept();
+    }
+
+    /**
+     * Task evaluating a range of the dirty per-tree densities.
+     */
+    private class DensityTask extends RecursiveAction {
+
+        private final int from, to;
+
+        DensityTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from == 1) {
+                densities.get(dirtyIdx[from]).calculateLogP();
+            } else {
+                int mid = (from+to)/2;
+                invokeAll(new DensityTask(from, mid), new DensityTask(mid, to));
+            }
+        }
+    }
+
+    /**
+     * @return list of per-tree densities, in the order of the tree inputs.
+     */
+    public List<StructuredCoalescentTreeDensity> getDensities() {
+        return densities;
+    }
+
+    @Override
+    public List<String> getArguments() {
+        return null;
+    }
+
+    @Override
+    public List<String> getConditions() {
+        return null;
+    }
+
+    @Override
+    public void sample(State state, Random random) {
+    }
+}
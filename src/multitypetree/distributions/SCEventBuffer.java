@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.distributions;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer holding a sequence of structured coalescent events as
+ * parallel primitive arrays, together with the number of lineages of each
+ * type present in the interval below each event.  Storage grows only when
+ * more events are needed than have previously been seen, so that once
+ * warmed up no garbage is produced.
+ *
+ * @author agent
+ */
+public class SCEventBuffer {
+
+    public static final int SAMPLE = 0, COALESCE = 1, MIGRATE = 2;
+
+    private final int nTypes;
+    private int size;
+
+    private double[] times;
+    private int[] kinds, types, destTypes, nodeNrs;
+    private int[] lineageCounts;
+
+    /**
+     * Create new empty event buffer.
+     *
+     * @param nTypes number of lineage types
+     */
+    public SCEventBuffer(int nTypes) {
+        this.nTypes = nTypes;
+        size = 0;
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        times = times == null ? new double[capacity] : Arrays.copyOf(times, capacity);
+        kinds = kinds == null ? new int[capacity] : Arrays.copyOf(kinds, capacity);
+        types = types == null ? new int[capacity] : Arrays.copyOf(types, capacity);
+        destTypes = destTypes == null ? new int[capacity] : Arrays.copyOf(destTypes, capacity);
+        nodeNrs = nodeNrs == null ? new int[capacity] : Arrays.copyOf(nodeNrs, capacity);
+        lineageCounts = lineageCounts == null
+                ? new int[capacity*nTypes]
+                : Arrays.copyOf(lineageCounts, capacity*nTypes);
+    }
+
+    /**
+     * Ensure buffer can hold at least the given number of events without
+     * further allocation.
+     *
+     * @param capacity required number of events
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > times.length)
+            allocate(Math.max(capacity, times.length + times.length/2));
+    }
+
+    /**
+     * @return number of lineage types
+     */
+    public int getNTypes() {
+        return nTypes;
+    }
+
+    /**
+     * @return number of events currently in buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set number of events in buffer.  Used when the buffer is filled
+     * directly via set().
+     *
+     * @param size new number of events, at most the current capacity
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Remove all events from buffer, retaining storage.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Append event to buffer.  Lineage counts for the new event are
+     * not initialised.
+     *
+     * @param time time of event
+     * @param kind SAMPLE, COALESCE or MIGRATE
+     * @param type type of lineage (source type for migrations)
+     * @param destType destination type of migration, ignored otherwise
+     * @param nodeNr number of node on whose branch the event lies
+     */
+    public void add(double time, int kind, int type, int destType, int nodeNr) {
+        ensureCapacity(size+1);
+        set(size++, time, kind, type, destType, nodeNr);
+    }
+
+    /**
+     * Overwrite event at given index.  Lineage counts are untouched.
+     *
+     * @param idx index of event, less than the current capacity
+     * @param time time of event
+     * @param kind SAMPLE, COALESCE or MIGRATE
+     * @param type type of lineage (source type for migrations)
+     * @param destType destination type of migration, ignored otherwise
+     * @param nodeNr number of node on whose branch the event lies
+     */
+    public void set(int idx, double time, int kind, int type, int destType, int nodeNr) {
+        times[idx] = time;
+        kinds[idx] = kind;
+        types[idx] = type;
+        destTypes[idx] = destType;
+        nodeNrs[idx] = nodeNr;
+    }
+
+    /**
+     * Append event at given index of another buffer to this buffer.
+     *
+     * @param other buffer containing event
+     * @param idx index of event in other buffer
+     */
+    public void add(SCEventBuffer other, int idx) {
+        add(other.times[idx], other.kinds[idx], other.types[idx],
+                other.destTypes[idx], other.nodeNrs[idx]);
+    }
+
+    public double getTime(int idx) {
+        return times[idx];
+    }
+
+    public int getKind(int idx) {
+        return kinds[idx];
+    }
+
+    public int getType(int idx) {
+        return types[idx];
+    }
+
+    public int getDestType(int idx) {
+        return destTypes[idx];
+    }
+
+    public int getNodeNr(int idx) {
+        return nodeNrs[idx];
+    }
+
+    /**
+     * Obtain number of lineages of a particular type in the interval
+     * immediately below the given event.
+     *
+     * @param idx index of event
+     * @param type lineage type
+     * @return lineage count
+     */
+    public int getLineageCount(int idx, int type) {
+        return lineageCounts[idx*nTypes + type];
+    }
+
+    /**
+     * Set lineage counts of the interval below the given event to the
+     * values given in an array.
+     *
+     * @param idx index of event
+     * @param counts array of nTypes counts
+     */
+    public void setLineageCounts(int idx, int[] counts) {
+        System.arraycopy(counts, 0, lineageCounts, idx*nTypes, nTypes);
+    }
+
+    /**
+     * Copy lineage counts of the interval below the given event into an
+     * array.
+     *
+     * @param idx index of event
+     * @param counts destination array of length at least nTypes
+     */
+    public void getLineageCounts(int idx, int[] counts) {
+        System.arraycopy(lineageCounts, idx*nTypes, counts, 0, nTypes);
+    }
+
+    /**
+     * Copy lineage counts for the first n events of another buffer into
+     * this one.
+     *
+     * @param other source buffer
+     * @param n number of events whose counts to copy
+     */
+    public void copyLineageCounts(SCEventBuffer other, int n) {
+        ensureCapacity(n);
+        System.arraycopy(other.lineageCounts, 0, lineageCounts, 0, n*nTypes);
+    }
+
+    /**
+     * Copy lineage counts for a contiguous range of events of another
+     * buffer into this one.
+     *
+     * @param other source buffer
+     * @param srcIdx index of first event in other buffer
+     * @param destIdx index of first event in this buffer
+     * @param n number of events whose counts to copy
+     */
+    public void copyLineageCounts(SCEventBuffer other, int srcIdx, int destIdx, int n) {
+        ensureCapacity(destIdx+n);
+        System.arraycopy(other.lineageCounts, srcIdx*nTypes,
+                lineageCounts, destIdx*nTypes, n*nTypes);
+    }
+
+    /**
+     * Sort events in buffer into order of increasing time using an
+     * in-place heap sort.  Lineage counts are not permuted.
+     */
+    public void sortByTime() {
+        for (int i=size/2-1; i>=0; i--)
+            siftDown(i, size);
+
+        for (int end=size-1; end>0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int pos, int end) {
+        while (true) {
+            int child = 2*pos+1;
+            if (child>=end)
+                return;
+
+            if (child+1<end && times[child+1]>times[child])
+                child += 1;
+
+            if (times[child]<=times[pos])
+                return;
+
+            swap(pos, child);
+            pos = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double tmpTime = times[i];
+        times[i] = times[j];
+        times[j] = tmpTime;
+
+        int tmp = kinds[i];
+        kinds[i] = kinds[j];
+        kinds[j] = tmp;
+
+        tmp = types[i];
+        types[i] = types[j];
+        types[j] = tmp;
+
+        tmp = destTypes[i];
+        destTypes[i] = destTypes[j];
+        destTypes[j] = tmp;
+
+        tmp = nodeNrs[i];
+        nodeNrs[i] = nodeNrs[j];
+        nodeNrs[j] = tmp;
+    }
+}
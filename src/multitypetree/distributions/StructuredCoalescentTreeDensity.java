@@ -20,16 +20,13 @@ import beast.core.*;
 import beast.core.Input.Validate;
 import beast.core.parameter.RealParameter;
 import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MigrationModelSnapshot;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.MultiTypeTree;
 import beast.evolution.tree.MultiTypeTreeFromNewick;
 import beast.evolution.tree.Node;
-import com.google.common.collect.Lists;
-import java.util.ArrayList;
+import beast.evolution.tree.Tree;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  *
@@ -51,18 +48,48 @@ public class StructuredCoalescentTreeDensity extends MultiTypeTreeDistribution {
     protected MultiTypeTree mtTree;
     protected boolean checkValidity;
 
-    protected enum SCEventKind {
-        COALESCE, MIGRATE, SAMPLE
-    }
-
-    protected class SCEvent {
-        double time;
-        int type, destType;
-        SCEventKind kind;
-        Node node;
-    }
-    protected List<SCEvent> eventList;
-    protected List<Integer[]> lineageCountList;
+    // Sequence of events making up the tree, together with the sequence
+    // from the last stored state and a spare buffer which the next
+    // sequence is assembled in.
+    protected SCEventBuffer events, storedEvents;
+    private SCEventBuffer scratchEvents, newEvents;
+    private boolean eventsUpdatedSinceStore;
+
+    // Fraction of nodes which may be edited before the event sequence is
+    // rebuilt from scratch rather than updated in place.
+    protected static final double MAX_DIRTY_NODE_FRACTION = 0.5;
+
+    // Set when the event sequence can no longer be updated using the node
+    // dirty flags, i.e. following tree edits which were never incorporated.
+    protected boolean eventsNeedRebuild, storedEventsNeedRebuild;
+    protected boolean treeEditPending;
+
+    // Set when requiresRecalculation() has established that the tree is
+    // unchanged, allowing the dirty node scan to be skipped.
+    protected boolean treeKnownClean;
+
+    // Sufficient statistics of the event sequence: per-deme integrals of
+    // k(k-1)/2 and of k over time, where k is the number of lineages in
+    // the deme, per-deme coalescence counts and per-pair migration counts.
+    protected double[] pairTime, lineageTime;
+    protected int[] coalescenceCount, migrationCount;
+    protected double[] storedPairTime, storedLineageTime;
+    protected int[] storedCoalescenceCount, storedMigrationCount;
+    protected boolean statsNeedUpdate, storedStatsNeedUpdate;
+
+    // Number of windowed statistics updates permitted before the statistics
+    // are recomputed from the full event sequence.
+    protected static final int MAX_WINDOWED_UPDATES = 1000;
+    protected int windowedUpdateCount, storedWindowedUpdateCount;
+
+    // Max-heap of active lineages used when rebuilding the event sequence:
+    private int[] heapNodeNrs, activeChangeIdx;
+    private double[] heapTimes;
+    private int heapSize;
+
+    // Work arrays reused between updates:
+    private int[] lineageCount, dirtyNodeNrs;
+    private boolean[] nodeIsDirty;
 
     // Empty constructor as required:
     public StructuredCoalescentTreeDensity() {
@@ -78,8 +105,28 @@ public class StructuredCoalescentTreeDensity extends MultiTypeTreeDistribution {
         mtTree = mtTreeInput.get();
         checkValidity = checkValidityInput.get();
 
-        eventList = new ArrayList<>();
-        lineageCountList = new ArrayList<>();
+        int nTypes = migrationModel.getNTypes();
+        events = new SCEventBuffer(nTypes);
+        storedEvents = new SCEventBuffer(nTypes);
+        scratchEvents = new SCEventBuffer(nTypes);
+        newEvents = new SCEventBuffer(nTypes);
+        eventsUpdatedSinceStore = false;
+
+        lineageCount = new int[nTypes];
+
+        pairTime = new double[nTypes];
+        lineageTime = new double[nTypes];
+        coalescenceCount = new int[nTypes];
+        migrationCount = new int[nTypes*nTypes];
+        storedPairTime = new double[nTypes];
+        storedLineageTime = new double[nTypes];
+        storedCoalescenceCount = new int[nTypes];
+        storedMigrationCount = new int[nTypes*nTypes];
+        statsNeedUpdate = true;
+
+        eventsNeedRebuild = true;
+        treeEditPending = false;
+        treeKnownClean = false;
     }
 
     @Override
@@ -89,168 +136,617 @@ public class StructuredCoalescentTreeDensity extends MultiTypeTreeDistribution {
         if (checkValidity && !mtTree.isValid())
             return Double.NEGATIVE_INFINITY;
 
-        // Ensure sequence of events is up-to-date:
+        // Ensure sequence of events and its statistics are up-to-date:
         updateEventSequence();
-
-        // Start from the tips of the tree, working up.
+        if (statsNeedUpdate)
+            updateSufficientStatistics();
+
+        // Combine statistics with current model parameters:
+        // Rates need only be looked up individually where migrations
+        // occurred:
+        int nTypes = events.getNTypes();
+        MigrationModelSnapshot model = migrationModel.getSnapshot();
         logP = 0;
+        for (int c = 0; c<nTypes; c++) {
+            logP += -pairTime[c]*model.getInvPopSize(c)
+                    - coalescenceCount[c]*model.getLogPopSize(c);
+
+            logP += -lineageTime[c]*model.getOutRate(c);
+            for (int cp = 0; cp<nTypes; cp++) {
+                if (cp != c && migrationCount[c*nTypes+cp]>0)
+                    logP += migrationCount[c*nTypes+cp]*model.getLogRate(c, cp);
+            }
+        }
+
+        return logP;
+    }
+
+    /**
+     * Obtain gradient of the log density with respect to the elements of
+     * the migration model's rate matrix parameter, evaluated at the tree
+     * and parameter values used in the most recent call to calculateLogP().
+     * Elements switched off by BSSVS flags have zero gradient.  For a
+     * symmetric rate matrix each element receives the contributions of
+     * both directions.
+     *
+     * @return array of derivatives, one per rate matrix element
+     */
+    public double[] getRateMatrixGradient() {
+
+        int nTypes = events.getNTypes();
+        MigrationModelSnapshot model = migrationModel.getSnapshot();
+        double[] grad = new double[migrationModel.rateMatrixInput.get().getDimension()];
+        for (int c = 0; c<nTypes; c++) {
+            for (int cp = 0; cp<nTypes; cp++) {
+                if (cp==c || !migrationModel.getRateFlag(c, cp))
+                    continue;
+
+                double dlogP = -lineageTime[c];
+                if (migrationCount[c*nTypes+cp]>0)
+                    dlogP += migrationCount[c*nTypes+cp]/model.getRate(c, cp);
+
+                grad[migrationModel.getArrayOffset(c, cp)] += dlogP;
+            }
+        }
+
+        return grad;
+    }
+
+    /**
+     * Obtain gradient of the log density with respect to the deme
+     * population sizes, evaluated at the tree and parameter values used in
+     * the most recent call to calculateLogP().
+     *
+     * @return array of derivatives, one per deme
+     */
+    public double[] getPopSizesGradient() {
+
+        int nTypes = events.getNTypes();
+        MigrationModelSnapshot model = migrationModel.getSnapshot();
+        double[] grad = new double[nTypes];
+        for (int c = 0; c<nTypes; c++) {
+            double invNc = model.getInvPopSize(c);
+            grad[c] = pairTime[c]*invNc*invNc - coalescenceCount[c]*invNc;
+        }
+
+        return grad;
+    }
+
+    /**
+     * Recompute the sufficient statistics from the event sequence.
+     */
+    protected void updateSufficientStatistics() {
+
+        Arrays.fill(pairTime, 0.0);
+        Arrays.fill(lineageTime, 0.0);
+        Arrays.fill(coalescenceCount, 0);
+        Arrays.fill(migrationCount, 0);
 
         // Note that the first event is always a sample. We begin at the first
         // _interval_ and the event following that interval.
-        for (int eventIdx = 1; eventIdx<eventList.size(); eventIdx++) {
+        addStatistics(events, 1, events.size(), 1);
 
-            SCEvent event = eventList.get(eventIdx);
-            Integer[] lineageCount = lineageCountList.get(eventIdx);
-            double delta_t = event.time-eventList.get(eventIdx-1).time;
+        statsNeedUpdate = false;
+        windowedUpdateCount = 0;
+    }
+
+    /**
+     * Add contributions of a range of events, together with the intervals
+     * immediately below each of them, to the sufficient statistics.  Using
+     * a sign of -1 removes the contributions, allowing the statistics to be
+     * updated only over the time window spanned by an edit.
+     *
+     * @param buffer buffer containing events
+     * @param startIdx index of first event in range (at least 1)
+     * @param endIdx index following the last event in range
+     * @param sign 1 to add contributions or -1 to remove them
+     */
+    protected void addStatistics(SCEventBuffer buffer,
+            int startIdx, int endIdx, int sign) {
+
+        int nTypes = buffer.getNTypes();
+        for (int eventIdx = startIdx; eventIdx<endIdx; eventIdx++) {
 
             // Interval contribution:
-            if (delta_t>0) {
-                double lambda = 0.0;
-                for (int c = 0; c<lineageCount.length; c++) {
-                    int k = lineageCount[c];
-                    double Nc = migrationModel.getPopSize(c);
-                    lambda += k*(k-1)/(2.0*Nc);
-
-                    for (int cp = 0; cp<lineageCount.length; cp++) {
-                        if (cp==c)
-                            continue;
-
-                        double m = migrationModel.getRate(c, cp);
-                        lambda += k*m;
-                    }
-                }
-                logP += -delta_t*lambda;
-            }
+            addIntervalStatistics(buffer, eventIdx, sign);
 
             // Event contribution:
-            switch (event.kind) {
-                case COALESCE:
-                    double N = migrationModel.getPopSize(event.type);
-                    logP += Math.log(1.0/N);
+            switch (buffer.getKind(eventIdx)) {
+                case SCEventBuffer.COALESCE:
+                    coalescenceCount[buffer.getType(eventIdx)] += sign;
                     break;
 
-                case MIGRATE:
-                    double m = migrationModel
-                            .getRate(event.type, event.destType);
-                    logP += Math.log(m);
+                case SCEventBuffer.MIGRATE:
+                    migrationCount[buffer.getType(eventIdx)*nTypes
+                            + buffer.getDestType(eventIdx)] += sign;
                     break;
 
-                case SAMPLE:
+                case SCEventBuffer.SAMPLE:
                     // Do nothing here: only effect of sampling event is
                     // to change the lineage counts in subsequent intervals.
                     break;
             }
         }
+    }
 
-        return logP;
+    /**
+     * Add contribution of the interval immediately below the given event
+     * to the sufficient statistics.
+     *
+     * @param buffer buffer containing events
+     * @param eventIdx index of event at top of interval (at least 1)
+     * @param sign 1 to add contribution or -1 to remove it
+     */
+    protected void addIntervalStatistics(SCEventBuffer buffer,
+            int eventIdx, int sign) {
+
+        double delta_t = buffer.getTime(eventIdx)-buffer.getTime(eventIdx-1);
+        if (!(delta_t>0))
+            return;
+
+        for (int c = 0; c<buffer.getNTypes(); c++) {
+            int k = buffer.getLineageCount(eventIdx, c);
+            pairTime[c] += sign*delta_t*0.5*k*(k-1);
+            lineageTime[c] += sign*delta_t*k;
+        }
+    }
+
+    /**
+     * Ensures the sequence of migration, coalescence and sampling events
+     * which make up the coloured tree is consistent with the current tree.
+     * When only a few nodes have been edited since the last call, the events
+     * belonging to those nodes are spliced out of the existing sequence and
+     * replaced.  Otherwise the sequence is rebuilt from scratch.
+     */
+    public void updateEventSequence() {
+
+        if (treeKnownClean && !eventsNeedRebuild && events.size()>0) {
+            treeKnownClean = false;
+            return;
+        }
+
+        Node[] nodes = mtTree.getNodesAsArray();
+
+        if (nodeIsDirty == null || nodeIsDirty.length<nodes.length) {
+            nodeIsDirty = new boolean[nodes.length];
+            dirtyNodeNrs = new int[nodes.length];
+        }
+
+        int nDirty = 0;
+        if (!eventsNeedRebuild) {
+            for (Node node : nodes) {
+                if (node.isDirty() != Tree.IS_CLEAN
+                        || ((MultiTypeNode)node).isTypingDirty())
+                    dirtyNodeNrs[nDirty++] = node.getNr();
+            }
+        }
+
+        if (eventsNeedRebuild || events.size() == 0
+                || nDirty > MAX_DIRTY_NODE_FRACTION*nodes.length) {
+            rebuildEventSequence();
+            statsNeedUpdate = true;
+        } else if (nDirty>0)
+            spliceEventSequence(dirtyNodeNrs, nDirty);
+
+        eventsNeedRebuild = false;
+        treeEditPending = false;
+        treeKnownClean = false;
+    }
+
+    /**
+     * Make the sequence assembled in the scratch buffer the current
+     * sequence.  The first update following a call to store() keeps the
+     * previous sequence aside so that restore() can simply swap it back.
+     */
+    private void commitScratchEvents() {
+        SCEventBuffer tmp = events;
+        events = scratchEvents;
+        if (eventsUpdatedSinceStore) {
+            scratchEvents = tmp;
+        } else {
+            scratchEvents = storedEvents;
+            storedEvents = tmp;
+            eventsUpdatedSinceStore = true;
+        }
+    }
+
+    /**
+     * Replaces the events belonging to the given nodes with events
+     * reflecting their current state, then brings the lineage counts above
+     * the earliest modified event up to date.
+     *
+     * @param dirtyNodeNrs numbers of nodes whose events are to be replaced
+     * @param nDirty number of entries of dirtyNodeNrs to use
+     */
+    protected void spliceEventSequence(int[] dirtyNodeNrs, int nDirty) {
+
+        Node[] nodes = mtTree.getNodesAsArray();
+
+        newEvents.clear();
+        for (int i=0; i<nDirty; i++) {
+            nodeIsDirty[dirtyNodeNrs[i]] = true;
+            addNodeEvents(nodes[dirtyNodeNrs[i]], newEvents);
+        }
+        newEvents.sortByTime();
+
+        // Merge events of unmodified nodes with the replacement events,
+        // keeping track of the first and last positions at which the
+        // sequence differs.  Beyond the last of these the merged sequence
+        // shares a common suffix with the old one.
+        SCEventBuffer merged = scratchEvents;
+        merged.clear();
+        merged.ensureCapacity(events.size() + newEvents.size());
+        int firstModifiedIdx = -1;
+        int oldSuffixIdx = 0, newSuffixIdx = 0;
+        int newIdx = 0;
+        for (int eventIdx=0; eventIdx<events.size(); eventIdx++) {
+            if (nodeIsDirty[events.getNodeNr(eventIdx)]) {
+                if (firstModifiedIdx<0)
+                    firstModifiedIdx = merged.size();
+                oldSuffixIdx = eventIdx+1;
+                newSuffixIdx = merged.size();
+                continue;
+            }
+
+            while (newIdx<newEvents.size()
+                    && newEvents.getTime(newIdx)<events.getTime(eventIdx)) {
+                if (firstModifiedIdx<0)
+                    firstModifiedIdx = merged.size();
+                merged.add(newEvents, newIdx++);
+                oldSuffixIdx = eventIdx;
+                newSuffixIdx = merged.size();
+            }
+
+            merged.add(events, eventIdx);
+        }
+        if (firstModifiedIdx<0)
+            firstModifiedIdx = 0;
+        while (newIdx<newEvents.size()) {
+            merged.add(newEvents, newIdx++);
+            oldSuffixIdx = events.size();
+            newSuffixIdx = merged.size();
+        }
+
+        for (int i=0; i<nDirty; i++)
+            nodeIsDirty[dirtyNodeNrs[i]] = false;
+
+        // Lineage counts below the first modified event are unaffected:
+        merged.copyLineageCounts(events, firstModifiedIdx+1);
+
+        // Recompute lineage counts up to the start of the common suffix.
+        // If the counts agree there, the remaining counts are unchanged.
+        merged.getLineageCounts(firstModifiedIdx, lineageCount);
+        boolean suffixUnchanged = newSuffixIdx>=merged.size();
+        for (int eventIdx = firstModifiedIdx;
+                eventIdx<merged.size(); eventIdx++) {
+
+            if (eventIdx==newSuffixIdx
+                    && lineageCountsEqual(events, oldSuffixIdx)) {
+                merged.copyLineageCounts(events, oldSuffixIdx+1,
+                        eventIdx+1, merged.size()-eventIdx-1);
+                suffixUnchanged = true;
+                break;
+            }
+
+            if (eventIdx==merged.size()-1)
+                break;
+
+            switch (merged.getKind(eventIdx)) {
+                case SCEventBuffer.SAMPLE:
+                    lineageCount[merged.getType(eventIdx)]++;
+                    break;
+
+                case SCEventBuffer.COALESCE:
+                    lineageCount[merged.getType(eventIdx)]--;
+                    break;
+
+                case SCEventBuffer.MIGRATE:
+                    lineageCount[merged.getType(eventIdx)]--;
+                    lineageCount[merged.getDestType(eventIdx)]++;
+                    break;
+            }
+            merged.setLineageCounts(eventIdx+1, lineageCount);
+        }
+
+        // Update the sufficient statistics over the modified window only,
+        // occasionally recomputing them in full to limit rounding drift:
+        if (suffixUnchanged && !statsNeedUpdate
+                && windowedUpdateCount<MAX_WINDOWED_UPDATES) {
+            int startIdx = Math.max(firstModifiedIdx, 1);
+            addStatistics(events, startIdx, oldSuffixIdx, -1);
+            if (oldSuffixIdx<events.size())
+                addIntervalStatistics(events, oldSuffixIdx, -1);
+            addStatistics(merged, startIdx, newSuffixIdx, 1);
+            if (newSuffixIdx<merged.size())
+                addIntervalStatistics(merged, newSuffixIdx, 1);
+            windowedUpdateCount += 1;
+        } else
+            statsNeedUpdate = true;
+
+        commitScratchEvents();
+    }
+
+    /**
+     * @param buffer buffer containing events
+     * @param eventIdx index of event
+     * @return true if lineage counts below the given event match those
+     * currently held in the lineageCount work array.
+     */
+    private boolean lineageCountsEqual(SCEventBuffer buffer, int eventIdx) {
+        for (int c = 0; c<lineageCount.length; c++) {
+            if (buffer.getLineageCount(eventIdx, c) != lineageCount[c])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends the events belonging to the branch above the given node,
+     * ordered from tips to root, to the given buffer.  The root contributes
+     * only its coalescence.
+     *
+     * @param node node owning the events
+     * @param buffer buffer to add events to
+     */
+    protected void addNodeEvents(Node node, SCEventBuffer buffer) {
+        MultiTypeNode mtNode = (MultiTypeNode)node;
+
+        buffer.add(node.getHeight(),
+                node.isLeaf() ? SCEventBuffer.SAMPLE : SCEventBuffer.COALESCE,
+                mtNode.getNodeType(), 0, node.getNr());
+
+        if (node.isRoot())
+            return;
+
+        int lastType = mtNode.getNodeType();
+        for (int i = 0; i<mtNode.getChangeCount(); i++) {
+            int destType = mtNode.getChangeType(i);
+            buffer.add(mtNode.getChangeTime(i), SCEventBuffer.MIGRATE,
+                    lastType, destType, node.getNr());
+
+            lastType = destType;
+        }
     }
 
     /**
      * Determines the sequence of migration, coalescence and sampling events
      * which make up the coloured tree.
+     *
+     * Events are generated from the root towards the tips by merging the
+     * change lists of the currently active lineages.  The lineages are held
+     * in a binary max-heap keyed by the time of each lineage's next event,
+     * so that the sequence is built in O(E log n) time for E events and n
+     * nodes.  As the total number of events is known in advance, the
+     * buffer is filled from the end so that it is ordered from tips to root.
      */
-    public void updateEventSequence() {
+    protected void rebuildEventSequence() {
 
-        // Clean up previous list:
-        eventList.clear();
-        lineageCountList.clear();
+        Node[] nodes = mtTree.getNodesAsArray();
         Node rootNode = mtTree.getRoot();
 
-        // Initialise map of active nodes to active change indices:
-        Map<Node, Integer> changeIdx = new HashMap<>();
-        changeIdx.put(rootNode, -1);
+        int nEvents = nodes.length;
+        for (Node node : nodes) {
+            if (!node.isRoot())
+                nEvents += ((MultiTypeNode)node).getChangeCount();
+        }
+
+        SCEventBuffer rebuilt = scratchEvents;
+        rebuilt.ensureCapacity(nEvents);
+        rebuilt.setSize(nEvents);
+
+        if (heapNodeNrs == null || heapNodeNrs.length<nodes.length) {
+            heapNodeNrs = new int[nodes.length];
+            heapTimes = new double[nodes.length];
+            activeChangeIdx = new int[nodes.length];
+        }
+        heapSize = 0;
+
+        // Initialise heap of active lineages with the root:
+        activeChangeIdx[rootNode.getNr()] = -1;
+        heapPush(rootNode.getNr(), rootNode.getHeight());
 
         // Initialise lineage count per colour array:
-        Integer[] lineageCount = new Integer[migrationModel.getNTypes()];
-        for (int c = 0; c<migrationModel.getNTypes(); c++)
-            if (c==((MultiTypeNode)rootNode).getNodeType())
-                lineageCount[c] = 1;
-            else
-                lineageCount[c] = 0;
+        Arrays.fill(lineageCount, 0);
+        lineageCount[((MultiTypeNode)rootNode).getNodeType()] = 1;
 
         // Calculate event sequence:
-        while (!changeIdx.isEmpty()) {
-
-            SCEvent nextEvent = new SCEvent();
-            nextEvent.time = Double.NEGATIVE_INFINITY;
-            nextEvent.node = rootNode; // Initial assignment not significant
-
-            // Determine next event
-            for (Node node : changeIdx.keySet())
-                if (changeIdx.get(node)<0) {
-                    if (node.isLeaf()) {
-                        // Next event is a sample
-                        if (node.getHeight()>nextEvent.time) {
-                            nextEvent.time = node.getHeight();
-                            nextEvent.kind = SCEventKind.SAMPLE;
-                            nextEvent.type = ((MultiTypeNode)node).getNodeType();
-                            nextEvent.node = node;
-                        }
-                    } else {
-                        // Next event is a coalescence
-                        if (node.getHeight()>nextEvent.time) {
-                            nextEvent.time = node.getHeight();
-                            nextEvent.kind = SCEventKind.COALESCE;
-                            nextEvent.type = ((MultiTypeNode)node).getNodeType();
-                            nextEvent.node = node;
-                        }
-                    }
+        int eventIdx = nEvents;
+        while (heapSize>0) {
+
+            // Next event belongs to lineage at top of heap:
+            int nodeNr = heapNodeNrs[0];
+            MultiTypeNode node = (MultiTypeNode)nodes[nodeNr];
+            int changeIdx = activeChangeIdx[nodeNr];
+            double time = heapTimes[0];
+
+            eventIdx -= 1;
+
+            // Update active lineages and lineage count appropriately:
+            if (changeIdx<0) {
+                int type = node.getNodeType();
+                heapPop();
+
+                if (node.isLeaf()) {
+                    rebuilt.set(eventIdx, time, SCEventBuffer.SAMPLE,
+                            type, 0, nodeNr);
+                    lineageCount[type]--;
                 } else {
-                    // Next event is a migration
-                    double thisChangeTime = ((MultiTypeNode)node).getChangeTime(changeIdx.get(node));
-                    if (thisChangeTime>nextEvent.time) {
-                        nextEvent.time = thisChangeTime;
-                        nextEvent.kind = SCEventKind.MIGRATE;
-                        nextEvent.destType = ((MultiTypeNode)node).getChangeType(changeIdx.get(node));
-                        if (changeIdx.get(node)>0)
-                            nextEvent.type = ((MultiTypeNode)node).getChangeType(changeIdx.get(node)-1);
-                        else
-                            nextEvent.type = ((MultiTypeNode)node).getNodeType();
-                        nextEvent.node = node;
+                    rebuilt.set(eventIdx, time, SCEventBuffer.COALESCE,
+                            type, 0, nodeNr);
+                    for (int i = 0; i<node.getChildCount(); i++) {
+                        MultiTypeNode mtChild = (MultiTypeNode)node.getChild(i);
+                        int childChangeIdx = mtChild.getChangeCount()-1;
+                        activeChangeIdx[mtChild.getNr()] = childChangeIdx;
+                        heapPush(mtChild.getNr(), childChangeIdx<0
+                                ? mtChild.getHeight()
+                                : mtChild.getChangeTime(childChangeIdx));
                     }
+                    lineageCount[type]++;
                 }
+            } else {
+                int destType = node.getChangeType(changeIdx);
+                int type = changeIdx>0
+                        ? node.getChangeType(changeIdx-1)
+                        : node.getNodeType();
+                rebuilt.set(eventIdx, time, SCEventBuffer.MIGRATE,
+                        type, destType, nodeNr);
+
+                lineageCount[destType]--;
+                lineageCount[type]++;
+
+                activeChangeIdx[nodeNr] = changeIdx-1;
+                heapReplaceTop(changeIdx>0
+                        ? node.getChangeTime(changeIdx-1)
+                        : node.getHeight());
+            }
 
-            // Update active node list (changeIdx) and lineage count appropriately:
-            switch (nextEvent.kind) {
-                case COALESCE:
-                    Node leftChild = nextEvent.node.getLeft();
-                    Node rightChild = nextEvent.node.getRight();
-
-                    changeIdx.remove(nextEvent.node);
-                    changeIdx.put(leftChild, ((MultiTypeNode)leftChild).getChangeCount()-1);
-                    changeIdx.put(rightChild, ((MultiTypeNode)rightChild).getChangeCount()-1);
-                    lineageCount[nextEvent.type]++;
-                    break;
-
-                case SAMPLE:
-                    changeIdx.remove(nextEvent.node);
-                    lineageCount[nextEvent.type]--;
-                    break;
+            // Record lineage counts in interval below event:
+            rebuilt.setLineageCounts(eventIdx, lineageCount);
+        }
 
-                case MIGRATE:
-                    lineageCount[nextEvent.destType]--;
-                    lineageCount[nextEvent.type]++;
-                    int oldIdx = changeIdx.get(nextEvent.node);
-                    changeIdx.put(nextEvent.node, oldIdx-1);
-                    break;
-            }
+        commitScratchEvents();
+    }
 
-            // Add event to list:
-            eventList.add(nextEvent);
-            lineageCountList.add(Arrays.copyOf(lineageCount, lineageCount.length));
+    /**
+     * Add lineage to heap used when building the event sequence.
+     *
+     * @param nodeNr number of node at base of lineage
+     * @param time time of the next event on the lineage
+     */
+    private void heapPush(int nodeNr, double time) {
+        int pos = heapSize++;
+        while (pos>0) {
+            int parentPos = (pos-1)/2;
+            if (heapTimes[parentPos]>=time)
+                break;
+
+            heapNodeNrs[pos] = heapNodeNrs[parentPos];
+            heapTimes[pos] = heapTimes[parentPos];
+            pos = parentPos;
         }
+        heapNodeNrs[pos] = nodeNr;
+        heapTimes[pos] = time;
+    }
 
-        // Reverse event and lineage count lists (order them from tips to root):
-        eventList = Lists.reverse(eventList);
-        lineageCountList = Lists.reverse(lineageCountList);
+    /**
+     * Remove lineage with the most recent next event from the heap.
+     */
+    private void heapPop() {
+        heapSize -= 1;
+        if (heapSize>0) {
+            heapNodeNrs[0] = heapNodeNrs[heapSize];
+            heapReplaceTop(heapTimes[heapSize]);
+        }
+    }
 
+    /**
+     * Assign a new next event time to the lineage at the top of the heap
+     * and restore the heap ordering.
+     *
+     * @param time new time of the next event on the top lineage
+     */
+    private void heapReplaceTop(double time) {
+        int nodeNr = heapNodeNrs[0];
+        int pos = 0;
+        while (true) {
+            int childPos = 2*pos+1;
+            if (childPos>=heapSize)
+                break;
+
+            if (childPos+1<heapSize
+                    && heapTimes[childPos+1]>heapTimes[childPos])
+                childPos += 1;
+
+            if (heapTimes[childPos]<=time)
+                break;
+
+            heapNodeNrs[pos] = heapNodeNrs[childPos];
+            heapTimes[pos] = heapTimes[childPos];
+            pos = childPos;
+        }
+        heapNodeNrs[pos] = nodeNr;
+        heapTimes[pos] = time;
     }
 
     @Override
     public boolean requiresRecalculation() {
+
+        // Tree edits made during a step in which we are never evaluated
+        // can't be recovered from the node dirty flags later on.
+        if (mtTree.somethingIsDirty()) {
+            if (treeEditPending)
+                eventsNeedRebuild = true;
+            treeEditPending = true;
+            treeKnownClean = false;
+        } else if (!treeEditPending) {
+            // Only the migration model has changed, so the cached
+            // statistics can be recombined with its new parameters.
+            treeKnownClean = true;
+        }
+
         return true;
     }
 
+    @Override
+    protected void store() {
+        // The current sequence is only set aside if it is replaced:
+        eventsUpdatedSinceStore = false;
+        storedEventsNeedRebuild = eventsNeedRebuild;
+
+        System.arraycopy(pairTime, 0, storedPairTime, 0, pairTime.length);
+        System.arraycopy(lineageTime, 0, storedLineageTime, 0, lineageTime.length);
+        System.arraycopy(coalescenceCount, 0, storedCoalescenceCount, 0,
+                coalescenceCount.length);
+        System.arraycopy(migrationCount, 0, storedMigrationCount, 0,
+                migrationCount.length);
+        storedStatsNeedUpdate = statsNeedUpdate;
+        storedWindowedUpdateCount = windowedUpdateCount;
+
+        super.store();
+    }
+
+    @Override
+    protected void restore() {
+        if (eventsUpdatedSinceStore) {
+            SCEventBuffer tmp = events;
+            events = storedEvents;
+            storedEvents = tmp;
+            eventsUpdatedSinceStore = false;
+        }
+
+        eventsNeedRebuild = storedEventsNeedRebuild;
+        treeEditPending = false;
+        treeKnownClean = false;
+
+        double[] tmpTime = pairTime;
+        pairTime = storedPairTime;
+        storedPairTime = tmpTime;
+        tmpTime = lineageTime;
+        lineageTime = storedLineageTime;
+        storedLineageTime = tmpTime;
+        int[] tmpCount = coalescenceCount;
+        coalescenceCount = storedCoalescenceCount;
+        storedCoalescenceCount = tmpCount;
+        tmpCount = migrationCount;
+        migrationCount = storedMigrationCount;
+        storedMigrationCount = tmpCount;
+        statsNeedUpdate = storedStatsNeedUpdate;
+        windowedUpdateCount = storedWindowedUpdateCount;
+
+        super.restore();
+    }
+
+    @Override
+    protected void accept() {
+        if (treeEditPending) {
+            eventsNeedRebuild = true;
+            treeEditPending = false;
+        }
+        treeKnownClean = false;
+
+        super.accept();
+    }
+
     /**
      * Test likelihood result. Duplicate of JUnit test for debugging purposes.
      *
@@ -4,8 +4,7 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.core.parameter.IntegerParameter;
 import beast.core.parameter.RealParameter;
-import beast.evolution.tree.MultiTypeNode;
-import beast.evolution.tree.Node;
+import beast.evolution.tree.MultiTypeTreeEventIndex;
 
 import java.util.Arrays;
 import java.util.HashSet;
@@ -71,29 +70,19 @@ public class TypeChangeTimeCondition extends MultiTypeTreeDistribution {
 
         logP = 0.0;
 
-        for (Node node : mtTree.getNodesAsArray()) {
-            if (node.isRoot())
-                continue;
-
-            if (node.getHeight()>h2.getValue()
-                || node.getParent().getHeight()<h1.getValue())
-                continue;
-
-            MultiTypeNode mtNode = (MultiTypeNode)node;
-
-            int lastType = mtNode.getNodeType();
-            for (int i=0; i<mtNode.getChangeCount(); i++) {
-                if (mtNode.getChangeTime(i)>h1.getValue()
-                        && mtNode.getChangeTime(i)<h2.getValue()
-                        && toTypes.contains(lastType)
-                        && fromTypes.contains(mtNode.getChangeType(i))) {
-                    logP = Double.NEGATIVE_INFINITY;
-                    return logP;
-                }
-
-                lastType = mtNode.getChangeType(i);
-            }
-       }
+        double h1Val = h1.getValue();
+        double h2Val = h2.getValue();
+        mtTree.getEventIndex().visitEvents(h1Val, h2Val,
+                (double time, int kind, int type, int destType, int nodeNr) -> {
+                    if (kind == MultiTypeTreeEventIndex.MIGRATE
+                            && time>h1Val && time<h2Val
+                            && toTypes.contains(type)
+                            && fromTypes.contains(destType)) {
+                        logP = Double.NEGATIVE_INFINITY;
+                        return false;
+                    }
+                    return true;
+                });
 
         return logP;
     }
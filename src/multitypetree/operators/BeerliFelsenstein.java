@@ -22,9 +22,9 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.core.Input.Validate;
 import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MigrationModelSnapshot;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 import com.google.common.collect.Lists;
 import java.util.Collections;
 import java.util.Comparator;
@@ -56,7 +56,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
         double logHR = 0.0;
         
         // Select non-root node at random
-        Node node = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount())-1);
+        Node node = mtTree.getNode(random.nextInt(mtTree.getNodeCount())-1);
         MultiTypeNode mtNode = (MultiTypeNode)node;
         
         // Keep copies of node and its sister for reverse move prob calculation
@@ -77,15 +77,10 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
         }
         
         // Pre-calculate total lineage migration propensities
+        MigrationModelSnapshot model = migModel.getSnapshot();
         double [] migProp = new double[migModel.getNTypes()];
-        for (int d=0; d<migModel.getNTypes(); d++) {
-            migProp[d] = 0.0;
-            for (int dp=0; dp<migModel.getNTypes(); dp++) {
-                if (d==dp)
-                    continue;
-                migProp[d] += migModel.getRate(d, dp);
-            }
-        }
+        for (int d=0; d<migModel.getNTypes(); d++)
+            migProp[d] = model.getOutRate(d);
         
         List<Set<Node>> nodesOfType = Lists.newArrayList();
         for (int i=0; i<migModel.getNTypes(); i++)
@@ -129,10 +124,10 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
             while (true) {
                 
                 // Calculate coalescent propensity
-                double coalProp = nodesOfType.get(deme).size()/migModel.getPopSize(deme);
+                double coalProp = nodesOfType.get(deme).size()*model.getInvPopSize(deme);
 
                 // Select event time
-                double dt = Randomizer.nextExponential(coalProp + migProp[deme]);
+                double dt = random.nextExponential(coalProp + migProp[deme]);
                 t += dt;
                 if (t > intervalEndTime)
                     break;
@@ -140,7 +135,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                 // HR waiting time contribution
                 logHR += -(coalProp + migProp[deme])*dt;
                 
-                double u = Randomizer.nextDouble()*(coalProp + migProp[deme]);
+                double u = random.nextDouble()*(coalProp + migProp[deme]);
                 if (u<coalProp) {
                     // Coalescence
 
@@ -148,7 +143,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                     Node coalNode = (Node)selectRandomElement(nodesOfType.get(deme));
                     
                     // HR event contribution
-                    logHR += Math.log(1.0/migModel.getPopSize(deme));
+                    logHR += -model.getLogPopSize(deme);
                     
                     // Implement coalescence
                     coalTime = t;                    
@@ -165,13 +160,13 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                         if (toDeme == deme)
                             continue;
                     
-                        u -= migModel.getRate(deme, toDeme);
+                        u -= model.getRate(deme, toDeme);
                         if (u<0)
                             break;
                     }
                 
                     // HR event contribution
-                    logHR += Math.log(migModel.getRate(deme, toDeme));
+                    logHR += model.getLogRate(deme, toDeme);
 
                     // Implelent migration
                     mtNode.addChange(toDeme, t);
@@ -198,24 +193,24 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                 // Calculate coalescent propensity
                 double coalProp;
                 if (deme == demeSis)
-                    coalProp = 1.0/migModel.getPopSize(deme);
+                    coalProp = model.getInvPopSize(deme);
                 else
                     coalProp = 0.0;
                 
                 double totalProp = coalProp + migProp[deme] + migProp[demeSis];
-                double dt = Randomizer.nextExponential(totalProp);
+                double dt = random.nextExponential(totalProp);
                 
                 // HR waiting time contribution
                 logHR += -totalProp*dt;
                 
                 t += dt;
                 
-                double u = Randomizer.nextDouble()*totalProp;
+                double u = random.nextDouble()*totalProp;
                 
                 if (u <coalProp) {
                     // Coalescence
                     
-                    logHR += Math.log(1.0/migModel.getPopSize(deme));
+                    logHR += -model.getLogPopSize(deme);
                     
                     coalTime = t;
                     nodeParent.addChild(mtNodeSis);
@@ -236,13 +231,13 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                             if (toDeme == deme)
                                 continue;
                             
-                            u -= migModel.getRate(deme, toDeme);
+                            u -= model.getRate(deme, toDeme);
                             if (u<0)
                                 break;
                         }
                         
                         // HR contribution
-                        logHR += Math.log(migModel.getRate(deme, toDeme));
+                        logHR += model.getLogRate(deme, toDeme);
                         
                         mtNode.addChange(toDeme, t);
                         deme = toDeme;
@@ -254,13 +249,13 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                             if (toDeme == demeSis)
                                 continue;
                             
-                            u -= migModel.getRate(demeSis, toDeme);
+                            u -= model.getRate(demeSis, toDeme);
                             if (u<0)
                                 break;
                         }
                         
                         // HR contribution
-                        logHR += Math.log(migModel.getRate(demeSis, toDeme));
+                        logHR += model.getLogRate(demeSis, toDeme);
                         
                         mtNodeSis.addChange(toDeme, t);
                         demeSis = toDeme;
@@ -355,6 +350,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
             MultiTypeNode node, MultiTypeNode nodeSis,
             double oldCoalTime, double newRootHeight) {
         double logP = 0.0;
+        MigrationModelSnapshot model = migModel.getSnapshot();
         
         MultiTypeNode mtNode = (MultiTypeNode)node;
 
@@ -405,7 +401,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
             while (true) {
                 
                 // Calculate coalescence propensities
-                double coalProp = lineageCounts[deme]/migModel.getPopSize(deme);
+                double coalProp = lineageCounts[deme]*model.getInvPopSize(deme);
                 
                 double nextTime;
                 if (changeIdx<mtNode.getChangeCount())
@@ -424,11 +420,11 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
                 if (changeIdx<mtNode.getChangeCount()) {
                     // Migration
                     int toDeme = mtNode.getChangeType(changeIdx);
-                    logP += Math.log(migModel.getRate(deme, toDeme));
+                    logP += model.getLogRate(deme, toDeme);
                     deme = toDeme;
                 } else {
                     // Coalescence
-                    logP += Math.log(1.0/migModel.getPopSize(deme));
+                    logP += -model.getLogPopSize(deme);
                     return logP;
                 }
             }
@@ -450,7 +446,7 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
             // Calculate propensities
             double coalProp;
             if (deme == demeSis)
-                coalProp = 1.0/migModel.getPopSize(deme);
+                coalProp = model.getInvPopSize(deme);
             else
                 coalProp = 0.0;
         }
@@ -465,6 +461,6 @@ public class BeerliFelsenstein extends MultiTypeTreeOperator {
      * @return Object
      */
     public Object selectRandomElement(Set set) {
-        return set.toArray()[Randomizer.nextInt(set.size())];
+        return set.toArray()[random.nextInt(set.size())];
     }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import beast.evolution.tree.MigrationModel;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.MultiTypeTree;
 import beast.evolution.tree.Node;
+import beast.evolution.tree.RandomSource;
 import beast.evolution.tree.Tree;
 
 /**
@@ -43,14 +44,30 @@ public abstract class MultiTypeTreeOperator extends Operator {
         "migrationModel",
         "Migration model for proposal distribution",
         Input.Validate.REQUIRED);
+
+    public Input<Boolean> privateRandomStreamInput = new Input<>(
+        "privateRandomStream",
+        "Draw random numbers from a stream private to this operator, seeded "
+        + "from the master seed and the operator ID, rather than from the "
+        + "global generator. (Default false.)", false);
     
     protected MultiTypeTree mtTree;
     protected MigrationModel migModel;
 
+    protected RandomSource random = RandomSource.GLOBAL;
+
     @Override
     public void initAndValidate() throws Exception {
         mtTree = multiTypeTreeInput.get();
         migModel = migrationModelInput.get();
+
+        if (privateRandomStreamInput.get()) {
+            if (getID() == null)
+                throw new IllegalArgumentException("Operators using a "
+                        + "private random stream must have an ID.");
+            random = RandomSource.forKey(getID());
+        } else
+            random = RandomSource.GLOBAL;
     }
 
     /* ***********************************************************************
@@ -22,7 +22,6 @@ import beast.core.parameter.BooleanParameter;
 import beast.core.parameter.RealParameter;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -115,7 +114,7 @@ public class MultiTypeTreeScale extends MultiTypeTreeOperator {
     public double proposal() {
 
         // Choose scale factor:
-        double u = Randomizer.nextDouble();
+        double u = random.nextDouble();
         double f = u*scaleFactorInput.get()+(1.0-u)/scaleFactorInput.get();
 
         // Keep track of Hastings ratio:
@@ -20,8 +20,6 @@ package multitypetree.operators;
 import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.MultiTypeNode;
-import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Denise Kuhnert
@@ -45,7 +43,7 @@ public class MultiTypeUniform extends MultiTypeTreeOperator {
     @Override
     public double proposal() {
         // Randomly select event on tree:
-        int event = Randomizer.nextInt(mtTree.getInternalNodeCount() + mtTree.getTotalNumberOfChanges());
+        int event = random.nextInt(mtTree.getInternalNodeCount() + mtTree.getTotalNumberOfChanges());
         
         
         MultiTypeNode node = null;
@@ -56,16 +54,8 @@ public class MultiTypeUniform extends MultiTypeTreeOperator {
                 return Double.NEGATIVE_INFINITY;
         } else {
             event -= mtTree.getInternalNodeCount();
-            for (Node thisNode : mtTree.getNodesAsArray()) {
-                if (thisNode.isRoot())
-                    continue;                
-                if (event<((MultiTypeNode)thisNode).getChangeCount()) {
-                    node = (MultiTypeNode)thisNode;
-                    changeIdx = event;
-                    break;
-                }
-                event -= ((MultiTypeNode)thisNode).getChangeCount();
-            }
+            node = mtTree.getChangeNode(event);
+            changeIdx = mtTree.getChangeIndex(event);
         }
         
         if (node == null)
@@ -77,7 +67,7 @@ public class MultiTypeUniform extends MultiTypeTreeOperator {
                 double tmin = Math.max(((MultiTypeNode)node.getLeft()).getFinalChangeTime(),
                         ((MultiTypeNode)node.getRight()).getFinalChangeTime());
                 
-                double u = Randomizer.nextDouble();
+                double u = random.nextDouble();
                 double f = u*rootScaleFactorInput.get()
                         + (1-u)/rootScaleFactorInput.get();
                 
@@ -94,7 +84,7 @@ public class MultiTypeUniform extends MultiTypeTreeOperator {
                         ? node.getChangeTime(0)
                         : node.getParent().getHeight();
                 
-                double u = Randomizer.nextDouble();
+                double u = random.nextDouble();
                 double tnew = u*tmin + (1.0-u)*tmax;
                 
                 node.setHeight(tnew);
@@ -112,7 +102,7 @@ public class MultiTypeUniform extends MultiTypeTreeOperator {
             else
                 tmin = node.getChangeTime(changeIdx-1);
             
-            double u = Randomizer.nextDouble();
+            double u = random.nextDouble();
             double tnew = u*tmin + (1-u)*tmax;
             
             node.setChangeTime(changeIdx, tnew);
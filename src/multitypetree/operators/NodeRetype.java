@@ -19,7 +19,6 @@ package multitypetree.operators;
 import beast.core.Description;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -34,7 +33,7 @@ public class NodeRetype extends UniformizationRetypeOperator {
         
         // Select node:
         Node node = mtTree.getNode(mtTree.getLeafNodeCount()
-                + Randomizer.nextInt(mtTree.getInternalNodeCount()));
+                + random.nextInt(mtTree.getInternalNodeCount()));
         
         // Record probability of current types along attached branches:
         if (!node.isRoot())
@@ -45,7 +44,7 @@ public class NodeRetype extends UniformizationRetypeOperator {
         
         // Select new node type:
         ((MultiTypeNode)node).setNodeType(
-            Randomizer.nextInt(migModel.getNTypes()));
+            random.nextInt(migModel.getNTypes()));
         
         // Retype attached branches:
         try {
@@ -19,7 +19,6 @@ package multitypetree.operators;
 import beast.core.Input;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * Abstract class of operators on MultiTypeTrees which retype branches using a
@@ -57,12 +56,12 @@ public abstract class RandomRetypeOperator extends MultiTypeTreeOperator {
         while (t < t_srcNodeParent) {
 
             // Determine time to next migration event:
-            t += Randomizer.nextExponential(mu);
+            t += random.nextExponential(mu);
 
             if (t < t_srcNodeParent) {
 
                 // Select new colour:
-                int newType = Randomizer.nextInt(migModel.getNTypes() - 1);
+                int newType = random.nextInt(migModel.getNTypes() - 1);
                 if (newType >= lastType)
                     newType += 1;
                 ((MultiTypeNode)srcNode).addChange(newType, t);
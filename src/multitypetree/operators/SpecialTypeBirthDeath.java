@@ -18,7 +18,6 @@ package multitypetree.operators;
 
 import beast.core.Description;
 import beast.evolution.tree.MultiTypeNode;
-import beast.util.Randomizer;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -45,7 +44,7 @@ public class SpecialTypeBirthDeath extends MultiTypeTreeOperator {
         MultiTypeNode right = (MultiTypeNode)root.getRight();
         
         // Select event:
-        int event = Randomizer.nextInt(mtTree.getTotalNumberOfChanges());
+        int event = random.nextInt(mtTree.getTotalNumberOfChanges());
         
         MultiTypeNode node, sister;
         int changeIdx;
@@ -61,7 +60,7 @@ public class SpecialTypeBirthDeath extends MultiTypeTreeOperator {
         
         // Implement birth or death
         double logHR;
-        boolean birth = Randomizer.nextBoolean();
+        boolean birth = random.nextBoolean();
         if (birth)
             logHR = birthProposal(node, changeIdx, sister);
         else
@@ -136,12 +135,12 @@ public class SpecialTypeBirthDeath extends MultiTypeTreeOperator {
         logHR -= Math.log(1.0/(Cbirth*mtTree.getTotalNumberOfChanges()*(tmax-tmin)));
 
         // Add new event:
-        double tnew = tmin + Randomizer.nextDouble()*(tmax-tmin);
+        double tnew = tmin + random.nextDouble()*(tmax-tmin);
         int aboveType = node.getChangeType(changeIdx);
         node.insertChange(changeIdx+1, aboveType, tnew);
         
         // Select and apply new type:
-        int n = Randomizer.nextInt(Cbirth);
+        int n = random.nextInt(Cbirth);
         int changeType;
         for (changeType = 0; changeType<migModel.getNTypes(); changeType++) {
             if (illegalTypesBirth.contains(changeType))
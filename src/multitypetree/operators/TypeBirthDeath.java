@@ -18,8 +18,6 @@ package multitypetree.operators;
 
 import beast.core.Description;
 import beast.evolution.tree.MultiTypeNode;
-import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -47,7 +45,7 @@ public class TypeBirthDeath extends MultiTypeTreeOperator {
             return Double.NEGATIVE_INFINITY;
         
         // Select event at random:
-        int event = Randomizer.nextInt(mtTree.getTotalNumberOfChanges()
+        int event = random.nextInt(mtTree.getTotalNumberOfChanges()
                 + mtTree.getInternalNodeCount()-1);
         
         MultiTypeNode node = null;
@@ -57,22 +55,12 @@ public class TypeBirthDeath extends MultiTypeTreeOperator {
         
         else {
             event -= mtTree.getInternalNodeCount()-1;
-            for (Node thisNode : mtTree.getNodesAsArray()) {
-                if (thisNode.isRoot())
-                    continue;
-                
-                if (event < ((MultiTypeNode)thisNode).getChangeCount()) {
-                    node = (MultiTypeNode)thisNode;
-                    changeIdx = event;
-                    break;
-                }
-                
-                event -= ((MultiTypeNode)thisNode).getChangeCount();
-            }
+            node = mtTree.getChangeNode(event);
+            changeIdx = mtTree.getChangeIndex(event);
         }
 
         // Perform either birth or death move
-        if (Randomizer.nextBoolean())
+        if (random.nextBoolean())
             return birthMove(node, changeIdx);
         else
             return deathMove(node, changeIdx);
@@ -100,7 +88,7 @@ public class TypeBirthDeath extends MultiTypeTreeOperator {
                 : node.getChangeTime(changeIdx+1);
         
         // Draw new event time:
-        double tnew = tmin + (tmax-tmin)*Randomizer.nextDouble();
+        double tnew = tmin + (tmax-tmin)*random.nextDouble();
         
         // Get type above new change:
         int changeTypeAbove = changeIdx<0
@@ -395,7 +383,7 @@ public class TypeBirthDeath extends MultiTypeTreeOperator {
      * @return chosen type
      */
     private int selectLegalChangeType() {
-        int n = Randomizer.nextInt(migModel.getNTypes()- illegalTypes.size());
+        int n = random.nextInt(migModel.getNTypes()- illegalTypes.size());
         int changeType;
         for (changeType=0; changeType<migModel.getNTypes(); changeType++) {
             if (illegalTypes.contains(changeType))
@@ -20,7 +20,6 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -37,11 +36,11 @@ public class TypeMergeSplit extends MultiTypeTreeOperator {
         Node node;
         do {
             node = mtTree.getNode(mtTree.getLeafNodeCount()
-                    + Randomizer.nextInt(mtTree.getInternalNodeCount()));
+                    + random.nextInt(mtTree.getInternalNodeCount()));
         } while (!includeRootInput.get() && node.isRoot());
         
         // Randomly select a merge or split proposal:
-        if (Randomizer.nextDouble()<0.5) {
+        if (random.nextDouble()<0.5) {
             if (node.isRoot())
                 return splitProposalRoot();
             else
@@ -78,11 +77,11 @@ public class TypeMergeSplit extends MultiTypeTreeOperator {
         // Select new change times:
         
         double tminLeft = ((MultiTypeNode)node.getLeft()).getFinalChangeTime();
-        double tnewLeft = (node.getHeight()-tminLeft)*Randomizer.nextDouble()
+        double tnewLeft = (node.getHeight()-tminLeft)*random.nextDouble()
                 + tminLeft;
         
         double tminRight = ((MultiTypeNode)node.getRight()).getFinalChangeTime();
-        double tnewRight = (node.getHeight()-tminRight)*Randomizer.nextDouble()
+        double tnewRight = (node.getHeight()-tminRight)*random.nextDouble()
                 + tminRight;
         
         // Record time of first migration or coalescence above node
@@ -109,7 +108,7 @@ public class TypeMergeSplit extends MultiTypeTreeOperator {
         int oldType = ((MultiTypeNode)root).getNodeType();
         int type;
         do {
-            type = Randomizer.nextInt(migModel.getNTypes());
+            type = random.nextInt(migModel.getNTypes());
         } while (type == oldType);
         
         // Update node type:
@@ -118,11 +117,11 @@ public class TypeMergeSplit extends MultiTypeTreeOperator {
         // Select new change times:
         
         double tminLeft = ((MultiTypeNode)root.getLeft()).getFinalChangeTime();
-        double tnewLeft = (root.getHeight()-tminLeft)*Randomizer.nextDouble()
+        double tnewLeft = (root.getHeight()-tminLeft)*random.nextDouble()
                 + tminLeft;
         
         double tminRight = ((MultiTypeNode)root.getRight()).getFinalChangeTime();
-        double tnewRight = (root.getHeight()-tminRight)*Randomizer.nextDouble()
+        double tnewRight = (root.getHeight()-tminRight)*random.nextDouble()
                 + tminRight;
        
         // Add new changes below node:
@@ -192,7 +191,7 @@ public class TypeMergeSplit extends MultiTypeTreeOperator {
         right.removeChange(rightIdx);        
         mtNode.setNodeType(leftTypeUnder);
         
-        double tnew = Randomizer.nextDouble()*(tmax-node.getHeight())
+        double tnew = random.nextDouble()*(tmax-node.getHeight())
                 + node.getHeight();
         
         mtNode.insertChange(0, leftType, tnew);
@@ -18,7 +18,6 @@ package multitypetree.operators;
 
 import beast.core.Description;
 import beast.evolution.tree.MultiTypeNode;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -30,7 +29,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
     @Override
     public double proposal() {
         // Select internal node to operate around:
-        int nodeID = mtTree.getLeafNodeCount() + Randomizer.nextInt(mtTree.getInternalNodeCount());
+        int nodeID = mtTree.getLeafNodeCount() + random.nextInt(mtTree.getInternalNodeCount());
         MultiTypeNode node = (MultiTypeNode)mtTree.getNode(nodeID);
 
         // Special root move
@@ -38,7 +37,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
             return rootProposal(node);
 
         // Regular merge/split moves
-        if (Randomizer.nextBoolean())
+        if (random.nextBoolean())
             return mergeProposal(node);
         else
             return splitProposal(node);
@@ -54,7 +53,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
         // Slide change from A to B
         
         MultiTypeNode A, B;
-        if (Randomizer.nextBoolean()) {
+        if (random.nextBoolean()) {
             A = (MultiTypeNode)root.getLeft();
             B = (MultiTypeNode)root.getRight();
         } else {
@@ -75,7 +74,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
 
         // Select new change time:
         double newTime = B.getFinalChangeTime() +
-                Randomizer.nextDouble()*(root.getHeight()-B.getFinalChangeTime());
+                random.nextDouble()*(root.getHeight()-B.getFinalChangeTime());
         
         // Add new change to B:
         B.addChange(A.getFinalType(), newTime);
@@ -94,7 +93,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
         double logHR = 0.0;
         
         // Select which branch forms the destination branch in this move:
-        int destBranch = Randomizer.nextInt(3);
+        int destBranch = random.nextInt(3);
         
         if (destBranch == 2) {
             // Branch is the parent branch (ordinary merge)
@@ -130,7 +129,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
             
             // Add new merged change
             double newTime = node.getHeight() +
-                    (newTimeMax-node.getHeight())*Randomizer.nextDouble();
+                    (newTimeMax-node.getHeight())*random.nextDouble();
             node.insertChange(0, changeType, newTime);
             
             // Update node typ:
@@ -170,7 +169,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
             
             // Add new merged change
             double newTime = newTimeMin +
-                    (node.getHeight()-newTimeMin)*Randomizer.nextDouble();
+                    (node.getHeight()-newTimeMin)*random.nextDouble();
             destBranchNode.addChange(changeType, newTime);
             
             // Update node type:
@@ -183,7 +182,7 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
     private double splitProposal(MultiTypeNode node) {
         double logHR = 0.0;
         
-        int sourceBranch = Randomizer.nextInt(3);
+        int sourceBranch = random.nextInt(3);
         
         if (sourceBranch == 2) {
             // Source branch is parent (normal situation)
@@ -213,9 +212,9 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
             
             // Select new change times
             double newTimeLeft = left.getFinalChangeTime()
-                    + (node.getHeight()-left.getFinalChangeTime())*Randomizer.nextDouble();
+                    + (node.getHeight()-left.getFinalChangeTime())*random.nextDouble();
             double newTimeRight = right.getFinalChangeTime()
-                    + (node.getHeight()-right.getFinalChangeTime())*Randomizer.nextDouble();
+                    + (node.getHeight()-right.getFinalChangeTime())*random.nextDouble();
             
             // Add new changes to child branches
             left.addChange(changeType, newTimeLeft);
@@ -252,10 +251,10 @@ public class TypeMergeSplitExtended extends MultiTypeTreeOperator {
             
             // Select new change times
             double newTimeNode = node.getHeight()
-                    + (maxTimeParent-node.getHeight())*Randomizer.nextDouble();
+                    + (maxTimeParent-node.getHeight())*random.nextDouble();
             
             double newTimeOther = otherBranchNode.getFinalChangeTime()
-                    + (node.getHeight()-otherBranchNode.getFinalChangeTime())*Randomizer.nextDouble();
+                    + (node.getHeight()-otherBranchNode.getFinalChangeTime())*random.nextDouble();
 
             // Add new changes
             node.insertChange(0, node.getNodeType(), newTimeNode);
@@ -19,7 +19,6 @@ package multitypetree.operators;
 import beast.core.Description;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -34,7 +33,7 @@ public class TypePairBirthDeath extends MultiTypeTreeOperator {
         int m = mtTree.getTotalNumberOfChanges();
         
         // Select sub-edge at random:
-        int edgeNum = Randomizer.nextInt(2*n - 2 + m);
+        int edgeNum = random.nextInt(2*n - 2 + m);
         
         // Find edge that sub-edge lies on:
         Node selectedNode = null;
@@ -50,7 +49,7 @@ public class TypePairBirthDeath extends MultiTypeTreeOperator {
         }
         
         // Complete either pair birth or pair death proposal:
-        if (Randomizer.nextDouble()<0.5)
+        if (random.nextDouble()<0.5)
             return birthProposal(selectedNode, edgeNum, n, m);
         else
             return deathProposal(selectedNode, edgeNum, n, m);
@@ -90,11 +89,11 @@ public class TypePairBirthDeath extends MultiTypeTreeOperator {
 
         int newEdgeType;
         do {
-            newEdgeType = Randomizer.nextInt(migModel.getNTypes());
+            newEdgeType = random.nextInt(migModel.getNTypes());
         } while (newEdgeType == oldEdgeType);
         
-        double tau1 = Randomizer.nextDouble()*(tr-ts) + ts;
-        double tau2 = Randomizer.nextDouble()*(tr-ts) + ts;
+        double tau1 = random.nextDouble()*(tr-ts) + ts;
+        double tau2 = random.nextDouble()*(tr-ts) + ts;
         double tauMin = Math.min(tau1, tau2);
         double tauMax = Math.max(tau1, tau2);
         
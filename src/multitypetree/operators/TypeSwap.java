@@ -20,7 +20,6 @@ import beast.core.Description;
 import beast.evolution.tree.MigrationModel;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  *
@@ -35,10 +34,10 @@ public class TypeSwap extends UniformizationRetypeOperator {
         double logHR = 0.0;
         
         // Select types to swap:
-        int typeA = Randomizer.nextInt(migModel.getNTypes());
+        int typeA = random.nextInt(migModel.getNTypes());
         int typeB;
         do {
-            typeB = Randomizer.nextInt(migModel.getNTypes());
+            typeB = random.nextInt(migModel.getNTypes());
         } while (typeB == typeA);
         
         // Calculate probability of selecting leaf branch typings:
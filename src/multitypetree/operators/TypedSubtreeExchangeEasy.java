@@ -19,7 +19,6 @@ package multitypetree.operators;
 import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -42,7 +41,7 @@ public class TypedSubtreeExchangeEasy extends MultiTypeTreeOperator {
             
             // Narrow exchange selection:
             do {
-                srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while (srcNode.isRoot() || srcNode.getParent().isRoot());
             srcNodeParent = srcNode.getParent();            
             destNode = getOtherChild(srcNodeParent.getParent(), srcNodeParent);
@@ -52,12 +51,12 @@ public class TypedSubtreeExchangeEasy extends MultiTypeTreeOperator {
             
             // Wide exchange selection:
             do {
-                srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while (srcNode.isRoot());
             srcNodeParent = srcNode.getParent();
             
             do {
-                destNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                destNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while(destNode == srcNode
                     || destNode.isRoot()
                     || destNode.getParent() == srcNodeParent);
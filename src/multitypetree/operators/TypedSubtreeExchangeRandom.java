@@ -20,7 +20,6 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -47,7 +46,7 @@ public class TypedSubtreeExchangeRandom extends RandomRetypeOperator {
             
             // Narrow exchange selection:
             do {
-                srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while (srcNode.isRoot() || srcNode.getParent().isRoot());
             srcNodeParent = srcNode.getParent();            
             destNode = getOtherChild(srcNodeParent.getParent(), srcNodeParent);
@@ -57,12 +56,12 @@ public class TypedSubtreeExchangeRandom extends RandomRetypeOperator {
             
             // Wide exchange selection:
             do {
-                srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while (srcNode.isRoot());
             srcNodeParent = srcNode.getParent();
             
             do {
-                destNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+                destNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
             } while(destNode == srcNode
                     || destNode.isRoot()
                     || destNode.getParent() == srcNode.getParent());
@@ -22,7 +22,6 @@ import beast.core.Input.Validate;
 import beast.core.State;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * Wilson-Balding branch swapping operator applied to coloured trees.
@@ -60,7 +59,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
         // Select source node:
         Node srcNode;
         do {
-            srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+            srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
         } while (invalidSrcNode(srcNode));
         Node srcNodeP = srcNode.getParent();
         Node srcNodeS = getOtherChild(srcNodeP, srcNode);
@@ -71,7 +70,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
         // Select destination branch node:
         Node destNode;
         do {
-            destNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+            destNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
         } while (invalidDestNode(srcNode, destNode));
         Node destNodeP = destNode.getParent();
         double t_destNode = destNode.getHeight();
@@ -90,7 +89,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
             double t_srcNodeG = srcNodeP.getParent().getHeight();
 
             // Choose new root height:
-            double newTime = t_destNode+Randomizer.nextExponential(1.0/(alpha*t_destNode));
+            double newTime = t_destNode+random.nextExponential(1.0/(alpha*t_destNode));
 
             // Implement tree changes:
             disconnectBranch(srcNode);
@@ -127,7 +126,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
             double min_newTime = Math.max(t_srcNode, t_destNode);
             double t_destNodeP = destNodeP.getHeight();
             double span = t_destNodeP-min_newTime;
-            double newTime = min_newTime+span*Randomizer.nextDouble();
+            double newTime = min_newTime+span*random.nextDouble();
 
             // Implement tree changes:
             disconnectBranchFromRoot(srcNode);
@@ -164,7 +163,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
         double min_newTime = Math.max(t_destNode, t_srcNode);
         double t_destNodeP = destNodeP.getHeight();
         double span = t_destNodeP-min_newTime;
-        double newTime = min_newTime+span*Randomizer.nextDouble();
+        double newTime = min_newTime+span*random.nextDouble();
 
         // Implement tree changes:
         disconnectBranch(srcNode);
@@ -251,7 +250,7 @@ public class TypedWilsonBalding extends UniformizationRetypeOperator {
         Node srcNodeS = getOtherChild(srcNodeP, srcNode);
 
         // Select new root colour:
-        ((MultiTypeNode)srcNodeP).setNodeType(Randomizer.nextInt(migModel.getNTypes()));
+        ((MultiTypeNode)srcNodeP).setNodeType(random.nextInt(migModel.getNTypes()));
         
         // Incorporate probability of new root colour:
         logProb += Math.log(1.0/migModel.getNTypes());
@@ -20,7 +20,6 @@ import beast.core.Description;
 import beast.core.Input;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
 
 /**
  * Wilson-Balding branch swapping operator applied to coloured trees. This
@@ -58,7 +57,7 @@ public class TypedWilsonBaldingRandom extends RandomRetypeOperator {
         // Select source node:
         Node srcNode;
         do {
-            srcNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+            srcNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
         } while (invalidSrcNode(srcNode));
         Node srcNodeP = srcNode.getParent();
         Node srcNodeS = getOtherChild(srcNodeP, srcNode);
@@ -69,7 +68,7 @@ public class TypedWilsonBaldingRandom extends RandomRetypeOperator {
         // Select destination branch node:
         Node destNode;
         do {
-            destNode = mtTree.getNode(Randomizer.nextInt(mtTree.getNodeCount()));
+            destNode = mtTree.getNode(random.nextInt(mtTree.getNodeCount()));
         } while (invalidDestNode(srcNode, destNode));
         Node destNodeP = destNode.getParent();
         double t_destNode = destNode.getHeight();
@@ -86,7 +85,7 @@ public class TypedWilsonBaldingRandom extends RandomRetypeOperator {
             double t_srcNodeG = srcNodeP.getParent().getHeight();
 
             // Choose new root height:
-            double newTime = t_destNode+Randomizer.nextExponential(1.0/(alpha*t_destNode));
+            double newTime = t_destNode+random.nextExponential(1.0/(alpha*t_destNode));
 
             // Implement tree changes:
             disconnectBranch(srcNode);
@@ -124,7 +123,7 @@ public class TypedWilsonBaldingRandom extends RandomRetypeOperator {
             double min_newTime = Math.max(t_srcNode, t_destNode);
             double t_destNodeP = destNodeP.getHeight();
             double span = t_destNodeP-min_newTime;
-            double newTime = min_newTime+span*Randomizer.nextDouble();
+            double newTime = min_newTime+span*random.nextDouble();
 
             // Implement tree changes:
             disconnectBranchFromRoot(srcNode);
@@ -162,7 +161,7 @@ public class TypedWilsonBaldingRandom extends RandomRetypeOperator {
         double min_newTime = Math.max(t_destNode, t_srcNode);
         double t_destNodeP = destNodeP.getHeight();
         double span = t_destNodeP-min_newTime;
-        double newTime = min_newTime+span*Randomizer.nextDouble();
+        double newTime = min_newTime+span*random.nextDouble();
 
         // Implement tree changes:
         disconnectBranch(srcNode);
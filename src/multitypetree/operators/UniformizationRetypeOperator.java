@@ -23,10 +23,9 @@ import beast.evolution.tree.MigrationModel;
 import beast.evolution.tree.MultiTypeNode;
 import beast.evolution.tree.MultiTypeTreeFromNewick;
 import beast.evolution.tree.Node;
-import beast.util.Randomizer;
+import beast.evolution.tree.SparseRateMatrix;
 import java.io.PrintStream;
 import java.util.Arrays;
-import org.jblas.MatrixFunctions;
 
 /**
  * Abstract class of operators on MultiTypeTrees which use the Fearnhead-Sherlock
@@ -74,14 +73,14 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
         
         int nVirt = 0;
 
-        double u = Randomizer.nextDouble();
+        double u = random.nextDouble();
         double P_low_given_ab = 0.0;
         double acc = - muL - Math.log(Pba);
         double log_muL = Math.log(muL);
         
         do {
             //double offset = acc + nVirt*log_muL - Gamma.logGamma(nVirt+1);
-            P_low_given_ab += Math.exp(Math.log(migrationModel.getRpowN(nVirt, sym).get(typeStart, typeEnd)) + acc);
+            P_low_given_ab += Math.exp(Math.log(migrationModel.getRpowN(nVirt, typeStart, typeEnd, sym)) + acc);
             
             if (P_low_given_ab>u)
                 return nVirt;
@@ -89,14 +88,15 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
             nVirt += 1;
             acc += log_muL - Math.log(nVirt);
             
-        } while (migrationModel.RpowSteadyN(sym)<0 || nVirt<migrationModel.RpowSteadyN(sym));
+        } while (migrationModel.RpowSteadyN(typeEnd, sym)<0
+                || nVirt<migrationModel.RpowSteadyN(typeEnd, sym));
         
         int thresh = nVirt;
         
         // P_n_given_ab constant for n>= thresh: only need
         // to sample P(n|n>=thresh)
         do {
-            nVirt = (int) Randomizer.nextPoisson(muL);
+            nVirt = (int) random.nextPoisson(muL);
         } while (nVirt < thresh);
 
         return nVirt;
@@ -127,9 +127,8 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
         // Pre-calculate some stuff:
         double muL = migModel.getMu(sym)*L;
         
-        double Pba = MatrixFunctions.expm(
-                migModel.getQ(sym)
-                .mul(L)).get(type_srcNode,type_srcNodeP);
+        double Pba = migModel.getTransitionProb(type_srcNode, type_srcNodeP,
+                L, sym);
 
         // Abort if transition is impossible.
         if (Pba == 0.0)
@@ -151,22 +150,25 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
         // Select times of virtual events:
         double[] times = new double[nVirt];
         for (int i = 0; i<nVirt; i++)
-            times[i] = Randomizer.nextDouble()*L+t_srcNode;
+            times[i] = random.nextDouble()*L+t_srcNode;
         Arrays.sort(times);
 
-        // Sample type changes along branch using FB algorithm:
+        // Sample type changes along branch using FB algorithm.  Only the
+        // non-zero elements of each row of R need to be visited:
+        SparseRateMatrix R = migModel.getSparseR(sym);
         int[] types = new int[nVirt];
         int prevType = type_srcNode;
         
         for (int i = 1; i<=nVirt; i++) {
             
-            double u2 = Randomizer.nextDouble()
-                    *migModel.getRpowN(nVirt-i+1, sym).get(prevType, type_srcNodeP);
-            int c;
+            double u2 = random.nextDouble()
+                    *migModel.getRpowN(nVirt-i+1, prevType, type_srcNodeP, sym);
+            int c = -1;
             boolean fellThrough = true;
-            for (c = 0; c<migModel.getNTypes(); c++) {
-                u2 -= migModel.getR(sym).get(prevType,c)
-                        *migModel.getRpowN(nVirt-i, sym).get(c,type_srcNodeP);
+            for (int k = R.getRowStart(prevType); k<R.getRowEnd(prevType); k++) {
+                c = R.getColumn(k);
+                u2 -= R.getValue(k)
+                        *migModel.getRpowN(nVirt-i, c, type_srcNodeP, sym);
                 if (u2<0.0) {
                     fellThrough = false;
                     break;
@@ -175,14 +177,6 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
             
             // Check for FB algorithm error:
             if (fellThrough) {
-                
-                double sum1 = migModel.getRpowN(nVirt-i+1, sym).get(prevType, type_srcNodeP);
-                double sum2 = 0;
-                for (c = 0; c<migModel.getNTypes(); c++) {
-                    sum2 += migModel.getR(sym).get(prevType,c)
-                            *migModel.getRpowN(nVirt-i, sym).get(c,type_srcNodeP);
-                }
-                
                 System.err.println("Warning: FB algorithm failure.  Aborting move.");
                 return Double.NEGATIVE_INFINITY;
             }
@@ -206,14 +200,14 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
                 ((MultiTypeNode)srcNode).addChange(types[i], times[i]);
 
                 // Add probability contribution:
-                logProb += migModel.getQ(sym).get(prevType, prevType)*(times[i]-prevTime)
-                        +Math.log(migModel.getQ(sym).get(prevType, types[i]));
+                logProb += migModel.getSparseQ(sym).get(prevType, prevType)*(times[i]-prevTime)
+                        +Math.log(migModel.getSparseQ(sym).get(prevType, types[i]));
 
                 prevType = types[i];
                 prevTime = times[i];
             }
         }
-        logProb += migModel.getQ(sym).get(prevType, prevType)*(t_srcNodeP-prevTime);
+        logProb += migModel.getSparseQ(sym).get(prevType, prevType)*(t_srcNodeP-prevTime);
 
         // Adjust probability to account for end condition:
         logProb -= Math.log(Pba);
@@ -249,17 +243,17 @@ public abstract class UniformizationRetypeOperator extends MultiTypeTreeOperator
             double thisTime = ((MultiTypeNode)srcNode).getChangeTime(i);
             int thisCol = ((MultiTypeNode)srcNode).getChangeType(i);
 
-            logProb += (thisTime-lastTime)*migrationModel.getQ(sym).get(lastCol, lastCol)
-                    +Math.log(migrationModel.getQ(sym).get(lastCol, thisCol));
+            logProb += (thisTime-lastTime)*migrationModel.getSparseQ(sym).get(lastCol, lastCol)
+                    +Math.log(migrationModel.getSparseQ(sym).get(lastCol, thisCol));
 
             lastTime = thisTime;
             lastCol = thisCol;
         }
-        logProb += (t_srcNodeP-lastTime)*migrationModel.getQ(sym).get(lastCol, lastCol);
+        logProb += (t_srcNodeP-lastTime)*migrationModel.getSparseQ(sym).get(lastCol, lastCol);
 
         // Adjust to account for end condition of path:
-        double Pba = MatrixFunctions.expm(
-                migrationModel.getQ(sym).mul(L)).get(col_srcNode, col_srcNodeP);
+        double Pba = migrationModel.getTransitionProb(col_srcNode, col_srcNodeP,
+                L, sym);
         
         // Catch for numerical errors:
         if (Pba>1.0 || Pba < 0.0) {
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package multitypetree.util;
+
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MigrationModelSnapshot;
+import beast.evolution.tree.RandomSource;
+import beast.evolution.tree.StructuredCoalescentCountSimulator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulates an ensemble of independent structured coalescent trees,
+ * recording summary statistics of each as primitive arrays.  As only
+ * summaries are required, replicates are generated using the lineage
+ * count simulator and no tree nodes are created.  Replicates are
+ * distributed across a pool of threads, each replicate drawing from its
+ * own random number stream split from a single seed, so results depend
+ * only on the seed and not on the number of threads used.
+ *
+ * @author agent
+ */
+public class StructuredCoalescentEnsemble {
+
+    private final MigrationModelSnapshot model;
+    private final int[] leafTypes;
+    private final double[] leafTimes;
+    private final int nTypes;
+
+    private double[] rootHeights, treeLengths;
+    private int[] rootTypes;
+    private int[][] changeCounts;
+
+    /**
+     * Create ensemble simulator.
+     *
+     * @param migrationModel migration model (current parameter values are used)
+     * @param leafTypes types of leaves
+     * @param leafTimes sampling times (heights) of leaves
+     */
+    public StructuredCoalescentEnsemble(MigrationModel migrationModel,
+            int[] leafTypes, double[] leafTimes) {
+        this(migrationModel.getSnapshot(), leafTypes, leafTimes);
+    }
+
+    /**
+     * Create ensemble simulator.
+     *
+     * @param model fixed migration model parameters
+     * @param leafTypes types of leaves
+     * @param leafTimes sampling times (heights) of leaves
+     */
+    public StructuredCoalescentEnsemble(MigrationModelSnapshot model,
+            int[] leafTypes, double[] leafTimes) {
+        if (leafTypes.length != leafTimes.length)
+            throw new IllegalArgumentException("Leaf type and time arrays "
+                    + "must have the same length.");
+
+        this.model = model;
+        this.leafTypes = leafTypes.clone();
+        this.leafTimes = leafTimes.clone();
+        nTypes = model.getNTypes();
+    }
+
+    /**
+     * Simulate the ensemble.
+     *
+     * @param nReps number of replicate trees
+     * @param seed seed from which replicate random number streams are split
+     * @param nThreads number of threads to use
+     * @throws InterruptedException if interrupted while waiting for threads
+     */
+    public void simulate(int nReps, long seed, int nThreads)
+            throws InterruptedException {
+
+        rootHeights = new double[nReps];
+        treeLengths = new double[nReps];
+        rootTypes = new int[nReps];
+        changeCounts = new int[nReps][nTypes];
+
+        // Streams are split in replicate order so that replicate i always
+        // receives the same stream for a given seed.
+        SplittableRandom master = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[nReps];
+        for (int i=0; i<nReps; i++)
+            streams[i] = master.split();
+
+        nThreads = Math.max(1, Math.min(nThreads, nReps));
+        if (nThreads == 1) {
+            simulateRange(streams, 0, nReps);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            int chunkSize = (nReps + nThreads - 1)/nThreads;
+            for (int start=0; start<nReps; start += chunkSize) {
+                final int from = start;
+                final int to = Math.min(nReps, start + chunkSize);
+                futures.add(executor.submit(
+                        () -> simulateRange(streams, from, to)));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Ensemble simulation failed.",
+                            ex.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Simulate replicates from (inclusive) to to (exclusive) using a
+     * single simulator.
+     */
+    private void simulateRange(SplittableRandom[] streams, int from, int to) {
+        StructuredCoalescentCountSimulator simulator =
+                new StructuredCoalescentCountSimulator(model, leafTypes, leafTimes);
+
+        for (int i=from; i<to; i++) {
+            simulator.simulate(RandomSource.fromStream(streams[i]));
+
+            rootHeights[i] = simulator.getRootHeight();
+            rootTypes[i] = simulator.getRootType();
+            treeLengths[i] = simulator.getTreeLength();
+            for (int type=0; type<nTypes; type++)
+                changeCounts[i][type] = simulator.getChangeCount(type);
+        }
+    }
+
+    /**
+     * @return root heights of simulated trees
+     */
+    public double[] getRootHeights() {
+        return rootHeights;
+    }
+
+    /**
+     * @return total branch lengths of simulated trees
+     */
+    public double[] getTreeLengths() {
+        return treeLengths;
+    }
+
+    /**
+     * @return root types of simulated trees
+     */
+    public int[] getRootTypes() {
+        return rootTypes;
+    }
+
+    /**
+     * @return numbers of type changes away from each type, indexed by
+     * replicate and then type
+     */
+    public int[][] getChangeCounts() {
+        return changeCounts;
+    }
+}
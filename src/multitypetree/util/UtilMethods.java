@@ -19,30 +19,29 @@ package multitypetree.util;
 
 import beast.core.parameter.IntegerParameter;
 import beast.evolution.tree.MigrationModel;
+import beast.util.Randomizer;
 
 /**
  *
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 public class UtilMethods {
-    
+
     public static double [] getSimulatedHeights(MigrationModel migrationModel,
             IntegerParameter leafTypes) throws Exception {
 
+        int nLeaves = leafTypes.getDimension();
+        int[] types = new int[nLeaves];
+        for (int i = 0; i < nLeaves; i++)
+            types[i] = leafTypes.getValue(i);
+
         // Generate ensemble:
         int reps = 100000;
-        double[] heights = new double[reps];
-
-        for (int i = 0; i < reps; i++) {
-            beast.evolution.tree.StructuredCoalescentMultiTypeTree sctree;
-            sctree = new beast.evolution.tree.StructuredCoalescentMultiTypeTree();
-            sctree.initByName(
-                    "migrationModel", migrationModel,
-                    "leafTypes", leafTypes);
-
-            heights[i] = sctree.getRoot().getHeight();
-        }
+        StructuredCoalescentEnsemble ensemble = new StructuredCoalescentEnsemble(
+                migrationModel, types, new double[nLeaves]);
+        ensemble.simulate(reps, Randomizer.nextLong(),
+                Runtime.getRuntime().availableProcessors());
 
-        return heights;
+        return ensemble.getRootHeights();
     }
 }
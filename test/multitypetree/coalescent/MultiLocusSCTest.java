@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.coalescent;
+
+import beast.core.MCMC;
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.evolution.operators.ScaleOperator;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import java.util.ArrayList;
+import java.util.List;
+import multitypetree.distributions.MultiLocusStructuredCoalescentDensity;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+import multitypetree.operators.NodeShiftRetype;
+import multitypetree.util.ConsistencyLogger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MultiLocusStructuredCoalescentDensity.
+ *
+ * @author agent
+ */
+public class MultiLocusSCTest {
+
+    /**
+     * Run an MCMC chain which moves the node heights of one of three trees
+     * and the migration rates, checking after every step (whether accepted
+     * or rejected) that the multi-locus density equals the sum of freshly
+     * constructed single-tree densities.
+     */
+    @Test
+    public void testAgainstSingleTreeDensities() throws Exception {
+        System.out.println("MultiLocusSCTest");
+
+        Randomizer.setSeed(53);
+
+        // Assemble migration model:
+        RealParameter rateMatrix = new RealParameter("0.1 0.2");
+        RealParameter popSizes = new RealParameter("7.0 5.0");
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+
+        // Assemble trees:
+        List<MultiTypeTree> trees = new ArrayList<>();
+        for (int i=0; i<3; i++) {
+            MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+            mtTree.initByName(
+                    "typeLabel", "deme",
+                    "migrationModel", migModel,
+                    "leafTypes", "1 0 0 1 1");
+            trees.add(mtTree);
+        }
+
+        // Only the first tree and the rates are operated on:
+        State state = new State();
+        state.initByName(
+                "stateNode", trees.get(0),
+                "stateNode", rateMatrix);
+
+        MultiLocusStructuredCoalescentDensity density =
+                new MultiLocusStructuredCoalescentDensity();
+        density.initByName(
+                "migrationModel", migModel,
+                "multiTypeTree", trees.get(0),
+                "multiTypeTree", trees.get(1),
+                "multiTypeTree", trees.get(2),
+                "threads", 2);
+
+        Operator operatorNSR = new NodeShiftRetype();
+        operatorNSR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", trees.get(0),
+                "migrationModel", migModel);
+
+        Operator operatorScale = new ScaleOperator();
+        operatorScale.initByName(
+                "weight", 1.0,
+                "parameter", rateMatrix,
+                "scaleFactor", 0.8);
+
+        ConsistencyLogger<List<StructuredCoalescentTreeDensity>> logger =
+                new ConsistencyLogger<>(
+                        () -> getFreshTreeDensities(trees, migModel),
+                        treeDensities -> {
+                            double expected = 0.0;
+                            for (StructuredCoalescentTreeDensity treeDensity : treeDensities)
+                                expected += treeDensity.calculateLogP();
+
+                            assertEquals(expected, density.getCurrentLogP(),
+                                    1e-10*Math.abs(expected));
+                        });
+        logger.initByName("logEvery", 1);
+
+        MCMC mcmc = new MCMC();
+        mcmc.initByName(
+                "chainLength", "5000",
+                "state", state,
+                "distribution", density,
+                "operator", operatorNSR,
+                "operator", operatorScale,
+                "logger", logger);
+
+        mcmc.run();
+
+        assertTrue(logger.getCheckCount()>0);
+    }
+
+    /**
+     * Build single-tree densities from scratch for each of the given trees.
+     */
+    private static List<StructuredCoalescentTreeDensity> getFreshTreeDensities(
+            List<MultiTypeTree> trees, MigrationModel migModel) throws Exception {
+        List<StructuredCoalescentTreeDensity> treeDensities = new ArrayList<>();
+        for (MultiTypeTree mtTree : trees)
+            treeDensities.add(ConsistencyLogger.treeDensity(
+                    StructuredCoalescentTreeDensity::new, migModel, mtTree).get());
+
+        return treeDensities;
+    }
+}
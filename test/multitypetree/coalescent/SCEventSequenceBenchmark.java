@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.coalescent;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.Node;
+import beast.util.Randomizer;
+import java.util.ArrayList;
+import java.util.List;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+
+/**
+ * Scaling benchmark for construction of the structured coalescent event
+ * sequence.  Not a unit test: run main() directly.  Time per event should
+ * grow no faster than log(n) in the number of tips.
+ *
+ * @author agent
+ */
+public class SCEventSequenceBenchmark {
+
+    static final int[] TIP_COUNTS = {100, 500, 1000, 5000, 10000, 50000};
+    static final int N_TYPES = 4;
+    static final double MIG_RATE = 0.05;
+
+    /**
+     * Assemble a random binary tree with the given number of tips and
+     * assign a random type history to it.
+     *
+     * @param nTips number of tips
+     * @return random multi-type tree
+     */
+    static MultiTypeTree randomTree(int nTips) {
+
+        List<MultiTypeNode> lineages = new ArrayList<>();
+        for (int i=0; i<nTips; i++) {
+            MultiTypeNode leaf = new MultiTypeNode();
+            leaf.setNr(i);
+            leaf.setID("t" + i);
+            leaf.setHeight(Randomizer.nextDouble() < 0.5 ? 0.0 : Randomizer.nextDouble());
+            lineages.add(leaf);
+        }
+
+        double t = 1.0;
+        int nextNr = nTips;
+        while (lineages.size()>1) {
+            t += Randomizer.nextExponential(0.5*lineages.size());
+
+            MultiTypeNode parent = new MultiTypeNode();
+            parent.setNr(nextNr++);
+            parent.setHeight(t);
+            parent.addChild(lineages.remove(Randomizer.nextInt(lineages.size())));
+            parent.addChild(lineages.remove(Randomizer.nextInt(lineages.size())));
+            lineages.add(parent);
+        }
+
+        MultiTypeNode root = lineages.get(0);
+        root.setNodeType(Randomizer.nextInt(N_TYPES));
+        assignTypes(root);
+
+        return new MultiTypeTree(root);
+    }
+
+    /**
+     * Simulate type changes down the branches below the given node.
+     *
+     * @param node node whose type has already been chosen
+     */
+    static void assignTypes(MultiTypeNode node) {
+
+        for (Node child : node.getChildren()) {
+            MultiTypeNode mtChild = (MultiTypeNode)child;
+
+            // Walk down the branch from the parent, recording changes:
+            List<Double> times = new ArrayList<>();
+            List<Integer> types = new ArrayList<>();
+            int type = node.getNodeType();
+            double time = node.getHeight();
+            while (true) {
+                time -= Randomizer.nextExponential(MIG_RATE*(N_TYPES-1));
+                if (time <= child.getHeight())
+                    break;
+
+                times.add(time);
+                types.add(type);
+                type = (type + 1 + Randomizer.nextInt(N_TYPES-1)) % N_TYPES;
+            }
+
+            // Changes are stored in order of increasing age:
+            for (int i=times.size()-1; i>=0; i--)
+                mtChild.addChange(types.get(i), times.get(i));
+            mtChild.setNodeType(type);
+
+            assignTypes(mtChild);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Randomizer.setSeed(42);
+
+        RealParameter rateMatrix = new RealParameter();
+        rateMatrix.initByName(
+                "dimension", N_TYPES*(N_TYPES-1),
+                "value", String.valueOf(MIG_RATE));
+        RealParameter popSizes = new RealParameter();
+        popSizes.initByName(
+                "dimension", N_TYPES,
+                "value", "10.0");
+        MigrationModel migrationModel = new MigrationModel();
+        migrationModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+
+        System.out.println("tips\tevents\tms/rebuild\tns/event\tns/(event*log2(n))");
+
+        for (int nTips : TIP_COUNTS) {
+            MultiTypeTree mtTree = randomTree(nTips);
+            int nEvents = mtTree.getNodeCount() + mtTree.getTotalNumberOfChanges();
+
+            int reps = Math.max(5, 200000/nTips);
+            long totalTime = 0;
+            for (int rep=-2; rep<reps; rep++) {
+                // A fresh density instance always builds the full sequence:
+                StructuredCoalescentTreeDensity density =
+                        new StructuredCoalescentTreeDensity();
+                density.initByName(
+                        "migrationModel", migrationModel,
+                        "multiTypeTree", mtTree);
+
+                long start = System.nanoTime();
+                density.calculateLogP();
+                if (rep>=0)
+                    totalTime += System.nanoTime() - start;
+            }
+
+            double nsPerRebuild = totalTime/(double)reps;
+            System.out.format("%d\t%d\t%.3f\t%.1f\t%.2f\n",
+                    nTips, nEvents,
+                    nsPerRebuild*1e-6,
+                    nsPerRebuild/nEvents,
+                    nsPerRebuild/(nEvents*Math.log(nTips)/Math.log(2)));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.coalescent;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTreeFromNewick;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares analytic gradient of structured coalescent density with
+ * finite difference approximations.
+ *
+ * @author agent
+ */
+public class SCGradientTest {
+
+    @Test
+    public void testGradient() throws Exception {
+        System.out.println("SCGradientTest");
+
+        // Assemble test MultiTypeTree:
+        String newickStr =
+                "(((A[&state=1]:0.25)[&state=0]:0.25,B[&state=0]:0.5)[&state=0]:1.5,"
+                + "(C[&state=0]:1.0,D[&state=0]:1.0)[&state=0]:1.0)[&state=0]:0.0;";
+
+        MultiTypeTreeFromNewick mtTree = new MultiTypeTreeFromNewick();
+        mtTree.initByName(
+                "newick", newickStr,
+                "typeLabel", "state");
+
+        // Assemble migration model:
+        RealParameter rateMatrix = new RealParameter();
+        rateMatrix.initByName("value", "2.0 1.0");
+        RealParameter popSizes = new RealParameter();
+        popSizes.initByName("value", "5.0 10.0");
+        MigrationModel migrationModel = new MigrationModel();
+        migrationModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+
+        // Set up likelihood instance:
+        StructuredCoalescentTreeDensity likelihood = new StructuredCoalescentTreeDensity();
+        likelihood.initByName(
+                "migrationModel", migrationModel,
+                "multiTypeTree", mtTree);
+
+        likelihood.calculateLogP();
+        double[] rateGrad = likelihood.getRateMatrixGradient();
+        double[] popSizeGrad = likelihood.getPopSizesGradient();
+
+        double h = 1e-6;
+        for (int i=0; i<2; i++) {
+            int j = 1-i;
+
+            double rate = migrationModel.getRate(i, j);
+            migrationModel.setRate(i, j, rate + h);
+            double logPplus = likelihood.calculateLogP();
+            migrationModel.setRate(i, j, rate - h);
+            double logPminus = likelihood.calculateLogP();
+            migrationModel.setRate(i, j, rate);
+
+            assertEquals((logPplus-logPminus)/(2*h),
+                    rateGrad[migrationModel.getArrayOffset(i, j)], 1e-5);
+
+            double popSize = migrationModel.getPopSize(i);
+            migrationModel.setPopSize(i, popSize + h);
+            logPplus = likelihood.calculateLogP();
+            migrationModel.setPopSize(i, popSize - h);
+            logPminus = likelihood.calculateLogP();
+            migrationModel.setPopSize(i, popSize);
+
+            assertEquals((logPplus-logPminus)/(2*h), popSizeGrad[i], 1e-5);
+        }
+    }
+}
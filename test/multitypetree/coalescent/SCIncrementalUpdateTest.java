@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.coalescent;
+
+import beast.core.MCMC;
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.evolution.operators.ScaleOperator;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import multitypetree.distributions.SCEventBuffer;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+import multitypetree.operators.MultiTypeTreeScale;
+import multitypetree.operators.MultiTypeUniform;
+import multitypetree.operators.NodeRetypeRandom;
+import multitypetree.operators.NodeShiftRetype;
+import multitypetree.operators.TypedSubtreeExchangeRandom;
+import multitypetree.operators.TypedWilsonBaldingRandom;
+import multitypetree.util.ConsistencyLogger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests incremental maintenance of the event sequence and its sufficient
+ * statistics by StructuredCoalescentTreeDensity under the standard
+ * operators, comparing against densities built from scratch.
+ *
+ * @author agent
+ */
+public class SCIncrementalUpdateTest {
+
+    /**
+     * Run an MCMC chain using the tree operators and a rate scaler.  After
+     * every step, accepted or rejected, the density's logP and event
+     * sequence must equal those of a freshly constructed density.
+     */
+    @Test
+    public void testAgainstFreshDensity() throws Exception {
+        System.out.println("SCIncrementalUpdateTest");
+
+        Randomizer.setSeed(17);
+
+        // Assemble migration model:
+        RealParameter rateMatrix = new RealParameter("0.1 0.2");
+        RealParameter popSizes = new RealParameter("7.0 5.0");
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+
+        // Assemble initial MultiTypeTree:
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 0 1 1 0 1 0");
+
+        State state = new State();
+        state.initByName(
+                "stateNode", mtTree,
+                "stateNode", rateMatrix);
+
+        ExposedDensity density = new ExposedDensity();
+        density.initByName(
+                "migrationModel", migModel,
+                "multiTypeTree", mtTree);
+
+        // Set up operators:
+        Operator operatorSTXR = new TypedSubtreeExchangeRandom();
+        operatorSTXR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+
+        Operator operatorTWBR = new TypedWilsonBaldingRandom();
+        operatorTWBR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2,
+                "alpha", 0.2);
+
+        Operator operatorNRR = new NodeRetypeRandom();
+        operatorNRR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+
+        Operator operatorNSR = new NodeShiftRetype();
+        operatorNSR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel);
+
+        Operator operatorMTU = new MultiTypeUniform();
+        operatorMTU.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel);
+
+        Operator operatorMTTS = new MultiTypeTreeScale();
+        operatorMTTS.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "scaleFactor", 0.8,
+                "useOldTreeScaler", false);
+
+        Operator operatorScale = new ScaleOperator();
+        operatorScale.initByName(
+                "weight", 1.0,
+                "parameter", rateMatrix,
+                "scaleFactor", 0.8);
+
+        ConsistencyLogger<ExposedDensity> logger = new ConsistencyLogger<>(
+                ConsistencyLogger.treeDensity(ExposedDensity::new, migModel, mtTree),
+                freshDensity -> assertConsistent(density, freshDensity));
+        logger.initByName("logEvery", 1);
+
+        // Long enough for many more than MAX_WINDOWED_UPDATES edits:
+        MCMC mcmc = new MCMC();
+        mcmc.initByName(
+                "chainLength", "20000",
+                "state", state,
+                "distribution", density,
+                "operator", operatorSTXR,
+                "operator", operatorTWBR,
+                "operator", operatorNRR,
+                "operator", operatorNSR,
+                "operator", operatorMTU,
+                "operator", operatorMTTS,
+                "operator", operatorScale,
+                "logger", logger);
+
+        mcmc.run();
+
+        assertTrue(logger.getCheckCount()>0);
+    }
+
+    /**
+     * Assert that the density under test agrees with a freshly built one.
+     */
+    static void assertConsistent(ExposedDensity density, ExposedDensity freshDensity) {
+        double expected = freshDensity.calculateLogP();
+        double tol = 1e-12*Math.max(1.0, Math.abs(expected));
+
+        // Value left by accept() or restore():
+        assertEquals(expected, density.getCurrentLogP(), tol);
+
+        // Value obtained on re-evaluation:
+        assertEquals(expected, density.calculateLogP(), tol);
+        assertEventsEqual(freshDensity.getEvents(), density.getEvents());
+    }
+
+    /**
+     * Assert that two event sequences are equal.  Events occurring at the
+     * same time may legitimately appear in either order, so lineage counts
+     * are only compared for intervals of non-zero length.
+     */
+    static void assertEventsEqual(SCEventBuffer expected, SCEventBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+
+        int[] expectedKindCounts = new int[3];
+        int[] actualKindCounts = new int[3];
+        for (int i=0; i<expected.size(); i++) {
+            assertEquals(expected.getTime(i), actual.getTime(i), 0.0);
+            expectedKindCounts[expected.getKind(i)] += 1;
+            actualKindCounts[actual.getKind(i)] += 1;
+
+            if (i>0 && expected.getTime(i)>expected.getTime(i-1)) {
+                for (int c=0; c<expected.getNTypes(); c++)
+                    assertEquals(expected.getLineageCount(i, c),
+                            actual.getLineageCount(i, c));
+            }
+        }
+        assertArrayEquals(expectedKindCounts, actualKindCounts);
+    }
+
+    /**
+     * Density exposing its current event sequence.
+     */
+    static class ExposedDensity extends StructuredCoalescentTreeDensity {
+        SCEventBuffer getEvents() {
+            return events;
+        }
+    }
+}
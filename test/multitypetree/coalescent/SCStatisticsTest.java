@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.coalescent;
+
+import beast.core.MCMC;
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import multitypetree.distributions.SCEventBuffer;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+import multitypetree.operators.NodeRetypeRandom;
+import multitypetree.operators.NodeShiftRetype;
+import multitypetree.operators.TypedSubtreeExchangeRandom;
+import multitypetree.operators.TypedWilsonBaldingRandom;
+import multitypetree.util.ConsistencyLogger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the sufficient statistics held by StructuredCoalescentTreeDensity
+ * against a direct interval-by-interval evaluation of the event sequence.
+ *
+ * @author agent
+ */
+public class SCStatisticsTest {
+
+    /**
+     * Compare statistics and density with the per-interval evaluation on
+     * randomly simulated trees and migration models.
+     */
+    @Test
+    public void testRandomTrees() throws Exception {
+        System.out.println("SCStatisticsTest (random trees)");
+
+        int nTypes = 3;
+        for (int rep=0; rep<20; rep++) {
+            Randomizer.setSeed(rep+1);
+
+            StringBuilder rates = new StringBuilder();
+            for (int i=0; i<nTypes*(nTypes-1); i++)
+                rates.append(" ").append(0.05 + 0.5*Randomizer.nextDouble());
+            StringBuilder sizes = new StringBuilder();
+            for (int i=0; i<nTypes; i++)
+                sizes.append(" ").append(1.0 + 9.0*Randomizer.nextDouble());
+            StringBuilder leafTypes = new StringBuilder();
+            for (int l=0; l<12; l++)
+                leafTypes.append(" ").append(Randomizer.nextInt(nTypes));
+
+            MigrationModel migModel = new MigrationModel();
+            migModel.initByName(
+                    "rateMatrix", new RealParameter(rates.toString().trim()),
+                    "popSizes", new RealParameter(sizes.toString().trim()));
+
+            MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+            mtTree.initByName(
+                    "typeLabel", "deme",
+                    "migrationModel", migModel,
+                    "leafTypes", leafTypes.toString().trim());
+
+            StatsDensity density = new StatsDensity();
+            density.initByName(
+                    "migrationModel", migModel,
+                    "multiTypeTree", mtTree);
+            double logP = density.calculateLogP();
+
+            assertStatisticsMatch(density, density.getEvents());
+            double expected = getIntervalLogP(density.getEvents(), migModel);
+            assertEquals(expected, logP, 1e-12*Math.max(1.0, Math.abs(expected)));
+        }
+    }
+
+    /**
+     * Compare statistics with the per-interval evaluation after every step
+     * of an MCMC chain using operators which edit only a few nodes at a
+     * time, so that the statistics are mostly updated over edit windows.
+     * The chain includes many more than MAX_WINDOWED_UPDATES such edits.
+     */
+    @Test
+    public void testWindowedUpdates() throws Exception {
+        System.out.println("SCStatisticsTest (windowed updates)");
+
+        Randomizer.setSeed(29);
+
+        RealParameter rateMatrix = new RealParameter("0.1 0.2");
+        RealParameter popSizes = new RealParameter("7.0 5.0");
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 0 1 1 0 1 0 0 0 1 1 0 1 0 1 1 0 0 1");
+
+        State state = new State();
+        state.initByName("stateNode", mtTree);
+
+        StatsDensity density = new StatsDensity();
+        density.initByName(
+                "migrationModel", migModel,
+                "multiTypeTree", mtTree);
+
+        Operator operatorSTXR = new TypedSubtreeExchangeRandom();
+        operatorSTXR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+
+        Operator operatorTWBR = new TypedWilsonBaldingRandom();
+        operatorTWBR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2,
+                "alpha", 0.2);
+
+        Operator operatorNRR = new NodeRetypeRandom();
+        operatorNRR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+
+        Operator operatorNSR = new NodeShiftRetype();
+        operatorNSR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "noRoot", true);
+
+        WindowedUpdateCounter counter = new WindowedUpdateCounter(density);
+        ConsistencyLogger<StatsDensity> logger = new ConsistencyLogger<>(
+                ConsistencyLogger.treeDensity(StatsDensity::new, migModel, mtTree),
+                freshDensity -> {
+                    freshDensity.calculateLogP();
+
+                    assertStatisticsMatch(density, freshDensity.getEvents());
+                    double expected = getIntervalLogP(freshDensity.getEvents(), migModel);
+                    assertEquals(expected, density.getCurrentLogP(),
+                            1e-10*Math.max(1.0, Math.abs(expected)));
+
+                    counter.update();
+                });
+        logger.initByName("logEvery", 1);
+
+        MCMC mcmc = new MCMC();
+        mcmc.initByName(
+                "chainLength", "50000",
+                "state", state,
+                "distribution", density,
+                "operator", operatorSTXR,
+                "operator", operatorTWBR,
+                "operator", operatorNRR,
+                "operator", operatorNSR,
+                "logger", logger);
+
+        mcmc.run();
+
+        System.out.println("Windowed updates: " + counter.nWindowedUpdates);
+        assertTrue(counter.nWindowedUpdates > StatsDensity.getMaxWindowedUpdates());
+    }
+
+    /**
+     * Assert that the statistics held by the density equal those obtained
+     * by summing over the intervals of the given event sequence.
+     */
+    static void assertStatisticsMatch(StatsDensity density, SCEventBuffer events) {
+        int nTypes = events.getNTypes();
+        double[] pairTime = new double[nTypes];
+        double[] lineageTime = new double[nTypes];
+        int[] coalescenceCount = new int[nTypes];
+        int[] migrationCount = new int[nTypes*nTypes];
+
+        for (int eventIdx=1; eventIdx<events.size(); eventIdx++) {
+            double delta_t = events.getTime(eventIdx)-events.getTime(eventIdx-1);
+            if (delta_t>0) {
+                for (int c=0; c<nTypes; c++) {
+                    int k = events.getLineageCount(eventIdx, c);
+                    pairTime[c] += delta_t*k*(k-1)/2.0;
+                    lineageTime[c] += delta_t*k;
+                }
+            }
+
+            switch (events.getKind(eventIdx)) {
+                case SCEventBuffer.COALESCE:
+                    coalescenceCount[events.getType(eventIdx)] += 1;
+                    break;
+                case SCEventBuffer.MIGRATE:
+                    migrationCount[events.getType(eventIdx)*nTypes
+                            + events.getDestType(eventIdx)] += 1;
+                    break;
+            }
+        }
+
+        for (int c=0; c<nTypes; c++) {
+            assertEquals(pairTime[c], density.getPairTime()[c],
+                    1e-10*Math.max(1.0, pairTime[c]));
+            assertEquals(lineageTime[c], density.getLineageTime()[c],
+                    1e-10*Math.max(1.0, lineageTime[c]));
+        }
+        assertArrayEquals(coalescenceCount, density.getCoalescenceCount());
+        assertArrayEquals(migrationCount, density.getMigrationCount());
+    }
+
+    /**
+     * Evaluate the structured coalescent density of an event sequence
+     * interval by interval.
+     */
+    static double getIntervalLogP(SCEventBuffer events, MigrationModel migModel) {
+        int nTypes = events.getNTypes();
+        double logP = 0.0;
+
+        for (int eventIdx=1; eventIdx<events.size(); eventIdx++) {
+            double delta_t = events.getTime(eventIdx)-events.getTime(eventIdx-1);
+
+            // Interval contribution:
+            if (delta_t>0) {
+                double lambda = 0.0;
+                for (int c=0; c<nTypes; c++) {
+                    int k = events.getLineageCount(eventIdx, c);
+                    lambda += k*(k-1)/(2.0*migModel.getPopSize(c));
+
+                    for (int cp=0; cp<nTypes; cp++) {
+                        if (cp != c)
+                            lambda += k*migModel.getRate(c, cp);
+                    }
+                }
+                logP += -delta_t*lambda;
+            }
+
+            // Event contribution:
+            switch (events.getKind(eventIdx)) {
+                case SCEventBuffer.COALESCE:
+                    logP += Math.log(1.0/migModel.getPopSize(events.getType(eventIdx)));
+                    break;
+                case SCEventBuffer.MIGRATE:
+                    logP += Math.log(migModel.getRate(events.getType(eventIdx),
+                            events.getDestType(eventIdx)));
+                    break;
+            }
+        }
+
+        return logP;
+    }
+
+    /**
+     * Density exposing its event sequence and sufficient statistics.
+     */
+    static class StatsDensity extends StructuredCoalescentTreeDensity {
+        SCEventBuffer getEvents() {
+            return events;
+        }
+
+        double[] getPairTime() {
+            return pairTime;
+        }
+
+        double[] getLineageTime() {
+            return lineageTime;
+        }
+
+        int[] getCoalescenceCount() {
+            return coalescenceCount;
+        }
+
+        int[] getMigrationCount() {
+            return migrationCount;
+        }
+
+        int getWindowedUpdateCount() {
+            return windowedUpdateCount;
+        }
+
+        static int getMaxWindowedUpdates() {
+            return MAX_WINDOWED_UPDATES;
+        }
+    }
+
+    /**
+     * Counts the steps at which the density updated its statistics over
+     * an edit window.
+     */
+    private static class WindowedUpdateCounter {
+
+        StatsDensity density;
+        int lastWindowedUpdateCount = 0;
+        int nWindowedUpdates = 0;
+
+        WindowedUpdateCounter(StatsDensity density) {
+            this.density = density;
+        }
+
+        void update() {
+            if (density.getWindowedUpdateCount()>lastWindowedUpdateCount)
+                nWindowedUpdates += 1;
+            lastWindowedUpdateCount = density.getWindowedUpdateCount();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.util;
+
+import beast.core.Logger;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import java.util.function.Supplier;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+
+/**
+ * Logger used by tests to check incrementally maintained quantities after
+ * every MCMC step, whether the proposal was accepted or rejected.  At each
+ * step a reference (typically a density) is built from scratch from the
+ * current state and handed to a check which compares it with the object
+ * under test.
+ *
+ * @param <T> type of the freshly built reference
+ * @author agent
+ */
+public class ConsistencyLogger<T> extends Logger {
+
+    /**
+     * Builds the reference from the current state.
+     *
+     * @param <T> type of reference
+     */
+    public interface FreshSupplier<T> {
+        T get() throws Exception;
+    }
+
+    /**
+     * Compares the freshly built reference with the object under test.
+     *
+     * @param <T> type of reference
+     */
+    public interface Check<T> {
+        void check(T fresh) throws Exception;
+    }
+
+    private final FreshSupplier<T> freshSupplier;
+    private final Check<T> check;
+    private int nChecks = 0;
+
+    public ConsistencyLogger(FreshSupplier<T> freshSupplier, Check<T> check) {
+        this.freshSupplier = freshSupplier;
+        this.check = check;
+    }
+
+    /**
+     * Supplier of freshly initialised single-tree structured coalescent
+     * densities.
+     *
+     * @param <D> type of density
+     * @param factory creates uninitialised density objects
+     * @param migModel migration model
+     * @param mtTree multi-type tree
+     * @return supplier
+     */
+    public static <D extends StructuredCoalescentTreeDensity> FreshSupplier<D>
+            treeDensity(Supplier<D> factory, MigrationModel migModel,
+                    MultiTypeTree mtTree) {
+        return () -> {
+            D density = factory.get();
+            density.initByName(
+                    "migrationModel", migModel,
+                    "multiTypeTree", mtTree);
+            return density;
+        };
+    }
+
+    /**
+     * @return number of steps checked so far
+     */
+    public int getCheckCount() {
+        return nChecks;
+    }
+
+    @Override
+    public void initAndValidate() { }
+
+    @Override
+    public void init() { }
+
+    @Override
+    public void log(int nSample) {
+        if (nSample<0)
+            return;
+
+        try {
+            check.check(freshSupplier.get());
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+
+        nChecks += 1;
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package multitypetree.util;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that ensemble results depend only on the seed and not on the
+ * number of threads used to generate them.
+ *
+ * @author agent
+ */
+public class StructuredCoalescentEnsembleTest {
+
+    @Test
+    public void testThreadCountIndependence() throws Exception {
+        System.out.println("StructuredCoalescentEnsembleTest");
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.1 0.3 0.2 0.05 0.1 0.2"),
+                "popSizes", new RealParameter("7.0 3.0 5.0"));
+
+        int[] leafTypes = {0, 0, 1, 2, 2, 1};
+        double[] leafTimes = {0.0, 0.0, 0.5, 0.0, 2.0, 1.0};
+
+        // Replicate count not divisible by the thread counts:
+        int nReps = 1001;
+
+        StructuredCoalescentEnsemble serial =
+                new StructuredCoalescentEnsemble(migModel, leafTypes, leafTimes);
+        serial.simulate(nReps, 42, 1);
+
+        for (int nThreads : new int[] {4, 3}) {
+            StructuredCoalescentEnsemble parallel =
+                    new StructuredCoalescentEnsemble(migModel, leafTypes, leafTimes);
+            parallel.simulate(nReps, 42, nThreads);
+
+            assertArrayEquals(serial.getRootHeights(), parallel.getRootHeights(), 0.0);
+            assertArrayEquals(serial.getTreeLengths(), parallel.getTreeLengths(), 0.0);
+            assertArrayEquals(serial.getRootTypes(), parallel.getRootTypes());
+            assertArrayEquals(serial.getChangeCounts(), parallel.getChangeCounts());
+        }
+
+        // A different seed must give different results:
+        StructuredCoalescentEnsemble other =
+                new StructuredCoalescentEnsemble(migModel, leafTypes, leafTimes);
+        other.simulate(nReps, 43, 4);
+        assertFalse(Arrays.equals(serial.getRootHeights(),
+                other.getRootHeights()));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests round trips through the binary state encoding of MultiTypeTree.
+ *
+ * @author agent
+ */
+public class MultiTypeTreeBinaryStateTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("MultiTypeTreeBinaryStateTest");
+
+        Randomizer.setSeed(3);
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.2 0.1"),
+                "popSizes", new RealParameter("7.0 5.0"));
+
+        MultiTypeTree treeA = simulateTree(migModel, "A");
+        MultiTypeTree treeB = simulateTree(migModel, "B");
+
+        for (boolean compress : new boolean[] {false, true}) {
+            String stateA = treeA.getBinaryState(compress);
+            String stateB = treeB.getBinaryState(compress);
+
+            // Node arrays are created afresh by initArrays():
+            ExposedTree loaded = new ExposedTree();
+            loaded.initFromBinaryState(stateA);
+            assertTreesEqual(treeA, loaded);
+            assertStoredNodesMatch(loaded);
+
+            // Node arrays now have the right size, so are reused:
+            loaded.initFromBinaryState(stateB);
+            assertTreesEqual(treeB, loaded);
+            assertStoredNodesMatch(loaded);
+
+            loaded.initFromBinaryState(stateA);
+            assertTreesEqual(treeA, loaded);
+            assertStoredNodesMatch(loaded);
+        }
+    }
+
+    /**
+     * Simulate tree, giving its leaves IDs which differ from their node
+     * numbers.
+     */
+    private MultiTypeTree simulateTree(MigrationModel migModel,
+            String prefix) throws Exception {
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 0 1 1 0 1");
+
+        for (Node node : mtTree.getExternalNodes())
+            node.setID(prefix + "_taxon" + node.getNr());
+
+        return mtTree;
+    }
+
+    /**
+     * Assert that two trees have identical node numbering, topology,
+     * heights, types, type changes and leaf IDs.
+     */
+    private void assertTreesEqual(MultiTypeTree expected, MultiTypeTree actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getLeafNodeCount(), actual.getLeafNodeCount());
+        assertEquals(expected.getRoot().getNr(), actual.getRoot().getNr());
+        assertEquals(expected.getTotalNumberOfChanges(),
+                actual.getTotalNumberOfChanges());
+
+        for (int nr=0; nr<expected.getNodeCount(); nr++) {
+            MultiTypeNode expectedNode = (MultiTypeNode)expected.getNode(nr);
+            MultiTypeNode actualNode = (MultiTypeNode)actual.getNode(nr);
+
+            if (expectedNode.isLeaf())
+                assertEquals(expectedNode.getID(), actualNode.getID());
+
+            assertNodesEqual(expectedNode, actualNode);
+        }
+    }
+
+    /**
+     * Assert that the stored nodes of a tree are a copy of its current
+     * nodes.
+     */
+    private void assertStoredNodesMatch(ExposedTree mtTree) {
+        Node[] nodes = mtTree.getNodesAsArray();
+        Node[] storedNodes = mtTree.getStoredNodes();
+
+        assertEquals(nodes.length, storedNodes.length);
+        for (int nr=0; nr<nodes.length; nr++) {
+            assertNotSame(nodes[nr], storedNodes[nr]);
+            assertNodesEqual((MultiTypeNode)nodes[nr], (MultiTypeNode)storedNodes[nr]);
+
+            // Stored nodes must link only to each other:
+            if (storedNodes[nr].getParent() != null)
+                assertSame(storedNodes[storedNodes[nr].getParent().getNr()],
+                        storedNodes[nr].getParent());
+            for (Node child : storedNodes[nr].getChildren())
+                assertSame(storedNodes[child.getNr()], child);
+        }
+    }
+
+    private void assertNodesEqual(MultiTypeNode expectedNode, MultiTypeNode actualNode) {
+        assertEquals(expectedNode.getNr(), actualNode.getNr());
+        assertEquals(expectedNode.getHeight(), actualNode.getHeight(), 0.0);
+        assertEquals(expectedNode.getNodeType(), actualNode.getNodeType());
+
+        if (expectedNode.getParent() == null)
+            assertNull(actualNode.getParent());
+        else
+            assertEquals(expectedNode.getParent().getNr(),
+                    actualNode.getParent().getNr());
+
+        assertEquals(expectedNode.getChildCount(), actualNode.getChildCount());
+        for (int i=0; i<expectedNode.getChildCount(); i++)
+            assertEquals(expectedNode.getChild(i).getNr(),
+                    actualNode.getChild(i).getNr());
+
+        assertEquals(expectedNode.getChangeCount(), actualNode.getChangeCount());
+        for (int idx=0; idx<expectedNode.getChangeCount(); idx++) {
+            assertEquals(expectedNode.getChangeType(idx),
+                    actualNode.getChangeType(idx));
+            assertEquals(expectedNode.getChangeTime(idx),
+                    actualNode.getChangeTime(idx), 0.0);
+        }
+    }
+
+    /**
+     * Tree exposing its stored nodes.
+     */
+    private static class ExposedTree extends MultiTypeTree {
+        Node[] getStoredNodes() {
+            return m_storedNodes;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.MCMC;
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.core.util.CompoundDistribution;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.MultiTypeTreeEventIndex;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import multitypetree.distributions.MultiTypeTreeDistribution;
+import multitypetree.distributions.StructuredCoalescentTreeDensity;
+import multitypetree.operators.*;
+import multitypetree.util.ConsistencyLogger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the event index maintained by MultiTypeTree against a brute-force
+ * walk over the nodes of the tree.
+ *
+ * @author agent
+ */
+public class MultiTypeTreeEventIndexTest {
+
+    /**
+     * Run an MCMC chain under the structured coalescent using the tree
+     * operators.  The index is checked while each proposal is evaluated
+     * and again after every step, once the proposal has been accepted or
+     * rejected.
+     */
+    @Test
+    public void testAgainstBruteForce() throws Exception {
+        System.out.println("MultiTypeTreeEventIndexTest");
+
+        Randomizer.setSeed(19);
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.1 0.2 0.1 0.05 0.15 0.1"),
+                "popSizes", new RealParameter("7.0 5.0 3.0"));
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 2 1 1 0 2 0 1 2");
+
+        State state = new State();
+        state.initByName("stateNode", mtTree);
+
+        StructuredCoalescentTreeDensity density = new StructuredCoalescentTreeDensity();
+        density.initByName(
+                "migrationModel", migModel,
+                "multiTypeTree", mtTree);
+
+        IndexCheck indexCheck = new IndexCheck();
+        indexCheck.initByName("multiTypeTree", mtTree);
+
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName(
+                "distribution", density,
+                "distribution", indexCheck);
+
+        List<Operator> operators = new ArrayList<>();
+        operators.add(new BeerliFelsenstein());
+        operators.add(new MultiTypeUniform());
+        operators.add(new NodeRetype());
+        operators.add(new NodeShiftRetype());
+        operators.add(new TypeBirthDeath());
+        operators.add(new TypeMergeSplit());
+        operators.add(new TypedSubtreeExchange());
+        for (Operator operator : operators)
+            operator.initByName(
+                    "weight", 1.0,
+                    "multiTypeTree", mtTree,
+                    "migrationModel", migModel);
+
+        Operator operatorMTTS = new MultiTypeTreeScale();
+        operatorMTTS.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "scaleFactor", 0.8,
+                "useOldTreeScaler", false);
+        operators.add(operatorMTTS);
+
+        Operator operatorTWBR = new TypedWilsonBaldingRandom();
+        operatorTWBR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2,
+                "alpha", 0.2);
+        operators.add(operatorTWBR);
+
+        Random random = new Random(23);
+        ConsistencyLogger<List<Event>> logger = new ConsistencyLogger<>(
+                () -> getEvents(mtTree),
+                events -> assertIndexMatches(mtTree, events, random));
+        logger.initByName("logEvery", 1);
+
+        List<Object> mcmcArgs = new ArrayList<>();
+        mcmcArgs.addAll(Arrays.asList(
+                "chainLength", "20000",
+                "state", state,
+                "distribution", posterior,
+                "logger", logger));
+        for (Operator operator : operators) {
+            mcmcArgs.add("operator");
+            mcmcArgs.add(operator);
+        }
+
+        MCMC mcmc = new MCMC();
+        mcmc.initByName(mcmcArgs.toArray());
+
+        mcmc.run();
+
+        assertTrue(logger.getCheckCount()>0);
+        assertTrue(indexCheck.nChecks>0);
+    }
+
+    /**
+     * Event as visited by the index.
+     */
+    private static class Event {
+        double time;
+        int kind, type, destType, nodeNr, changeIdx;
+
+        Event(double time, int kind, int type, int destType,
+                int nodeNr, int changeIdx) {
+            this.time = time;
+            this.kind = kind;
+            this.type = type;
+            this.destType = destType;
+            this.nodeNr = nodeNr;
+            this.changeIdx = changeIdx;
+        }
+    }
+
+    /**
+     * Assemble list of events by walking over every node of the tree,
+     * sorted in the order in which the index visits them.
+     */
+    private static List<Event> getEvents(MultiTypeTree mtTree) {
+        List<Event> events = new ArrayList<>();
+
+        for (Node node : mtTree.getNodesAsArray()) {
+            MultiTypeNode mtNode = (MultiTypeNode)node;
+            int type = mtNode.getNodeType();
+            events.add(new Event(mtNode.getHeight(),
+                    mtNode.isLeaf()
+                            ? MultiTypeTreeEventIndex.SAMPLE
+                            : MultiTypeTreeEventIndex.COALESCE,
+                    type, type, mtNode.getNr(), -1));
+
+            if (mtNode.isRoot())
+                continue;
+
+            for (int idx=0; idx<mtNode.getChangeCount(); idx++) {
+                int destType = mtNode.getChangeType(idx);
+                events.add(new Event(mtNode.getChangeTime(idx),
+                        MultiTypeTreeEventIndex.MIGRATE,
+                        type, destType, mtNode.getNr(), idx));
+                type = destType;
+            }
+        }
+
+        events.sort((Event a, Event b) -> {
+            if (a.time != b.time)
+                return a.time < b.time ? -1 : 1;
+            if (a.nodeNr != b.nodeNr)
+                return a.nodeNr < b.nodeNr ? -1 : 1;
+            return Integer.compare(a.changeIdx, b.changeIdx);
+        });
+
+        return events;
+    }
+
+    /**
+     * Assert that the event index of the tree visits the expected events
+     * over the whole tree, over ranges bounded by event times (which are
+     * inclusive) and over random ranges, and that visits can be ended
+     * early.
+     */
+    private static void assertIndexMatches(MultiTypeTree mtTree,
+            List<Event> expected, Random random) {
+        MultiTypeTreeEventIndex index = mtTree.getEventIndex();
+        assertEquals(expected.size(), index.getEventCount());
+
+        assertRangeMatches(index, expected,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        double h1 = expected.get(random.nextInt(expected.size())).time;
+        double h2 = expected.get(random.nextInt(expected.size())).time;
+        assertRangeMatches(index, expected, Math.min(h1, h2), Math.max(h1, h2));
+
+        double rootHeight = mtTree.getRoot().getHeight();
+        h1 = rootHeight*random.nextDouble();
+        h2 = rootHeight*random.nextDouble();
+        assertRangeMatches(index, expected, Math.min(h1, h2), Math.max(h1, h2));
+
+        // Early termination:
+        int nVisits = 1 + random.nextInt(expected.size());
+        int[] visited = new int[1];
+        assertFalse(index.visitEvents(Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY,
+                (double time, int kind, int type, int destType, int nodeNr) -> {
+                    assertEquals(expected.get(visited[0]).nodeNr, nodeNr);
+                    visited[0] += 1;
+                    return visited[0] < nVisits;
+                }));
+        assertEquals(nVisits, visited[0]);
+    }
+
+    private static void assertRangeMatches(MultiTypeTreeEventIndex index,
+            List<Event> expected, double h1, double h2) {
+        List<Event> expectedInRange = new ArrayList<>();
+        for (Event event : expected) {
+            if (event.time >= h1 && event.time <= h2)
+                expectedInRange.add(event);
+        }
+
+        int[] visited = new int[1];
+        assertTrue(index.visitEvents(h1, h2,
+                (double time, int kind, int type, int destType, int nodeNr) -> {
+                    assertTrue(visited[0] < expectedInRange.size());
+                    Event event = expectedInRange.get(visited[0]);
+                    assertEquals(event.time, time, 0.0);
+                    assertEquals(event.kind, kind);
+                    assertEquals(event.type, type);
+                    assertEquals(event.destType, destType);
+                    assertEquals(event.nodeNr, nodeNr);
+                    visited[0] += 1;
+                    return true;
+                }));
+        assertEquals(expectedInRange.size(), visited[0]);
+    }
+
+    /**
+     * Distribution which checks the event index of the proposed tree each
+     * time it is evaluated, and otherwise contributes nothing to the
+     * posterior.
+     */
+    public static class IndexCheck extends MultiTypeTreeDistribution {
+
+        Random random = new Random(29);
+        int nChecks = 0;
+
+        @Override
+        public double calculateLogP() {
+            assertIndexMatches(mtTree, getEvents(mtTree), random);
+            nChecks += 1;
+
+            logP = 0.0;
+            return logP;
+        }
+
+        @Override
+        protected boolean requiresRecalculation() {
+            return true;
+        }
+    }
+}
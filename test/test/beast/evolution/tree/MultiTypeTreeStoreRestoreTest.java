@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import java.util.ArrayList;
+import java.util.List;
+import multitypetree.operators.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that MultiTypeTree.restore() undoes the proposals of every
+ * operator, and that the change index stays consistent with the tree.
+ *
+ * @author agent
+ */
+public class MultiTypeTreeStoreRestoreTest {
+
+    @Test
+    public void testAllOperators() throws Exception {
+        System.out.println("MultiTypeTreeStoreRestoreTest");
+
+        Randomizer.setSeed(7);
+
+        // Three types are required by TypeBirthDeath:
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.1 0.2 0.1 0.05 0.15 0.1"),
+                "popSizes", new RealParameter("7.0 5.0 3.0"));
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 2 1 1 0 2 0");
+
+        List<Operator> operators = new ArrayList<>();
+        operators.add(new BeerliFelsenstein());
+        operators.add(new MultiTypeTreeScale());
+        operators.add(new MultiTypeUniform());
+        operators.add(new NodeRetype());
+        operators.add(new NodeShiftRetype());
+        operators.add(new TypeBirthDeath());
+        operators.add(new TypeMergeSplit());
+        operators.add(new TypeMergeSplitExtended());
+        operators.add(new TypePairBirthDeath());
+        operators.add(new TypeSwap());
+        operators.add(new TypedSubtreeExchange());
+        operators.add(new TypedSubtreeExchangeEasy());
+        operators.add(new TypedWilsonBalding());
+        operators.add(new TypedWilsonBaldingEasy());
+        for (Operator operator : operators) {
+            if (operator instanceof TypedWilsonBalding
+                    || operator instanceof TypedWilsonBaldingEasy)
+                operator.initByName(
+                        "weight", 1.0,
+                        "multiTypeTree", mtTree,
+                        "migrationModel", migModel,
+                        "alpha", 0.2);
+            else
+                operator.initByName(
+                        "weight", 1.0,
+                        "multiTypeTree", mtTree,
+                        "migrationModel", migModel);
+        }
+
+        Operator operatorNRR = new NodeRetypeRandom();
+        operatorNRR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+        operators.add(operatorNRR);
+
+        Operator operatorNSRR = new NodeShiftRetypeRandom();
+        operatorNSRR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+        operators.add(operatorNSRR);
+
+        Operator operatorSTXR = new TypedSubtreeExchangeRandom();
+        operatorSTXR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2);
+        operators.add(operatorSTXR);
+
+        Operator operatorTWBR = new TypedWilsonBaldingRandom();
+        operatorTWBR.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "mu", 0.2,
+                "alpha", 0.2);
+        operators.add(operatorTWBR);
+
+        runProposals(mtTree, operators, 200);
+    }
+
+    /**
+     * SpecialTypeBirthDeath is only valid for two-taxon trees, so is
+     * tested separately.
+     */
+    @Test
+    public void testSpecialTypeBirthDeath() throws Exception {
+        System.out.println("MultiTypeTreeStoreRestoreTest (STBD)");
+
+        Randomizer.setSeed(11);
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.1 0.2 0.1 0.05 0.15 0.1"),
+                "popSizes", new RealParameter("7.0 5.0 3.0"));
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0");
+
+        List<Operator> operators = new ArrayList<>();
+        Operator operatorSTBD = new SpecialTypeBirthDeath();
+        operatorSTBD.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel);
+        operators.add(operatorSTBD);
+
+        runProposals(mtTree, operators, 2000);
+    }
+
+    /**
+     * Apply each operator in turn, nSteps times over.  Each proposal is
+     * either kept or undone at random (proposals which fail or leave an
+     * invalid tree are always undone), and undone proposals must leave the
+     * tree exactly as it was before.  The change index is checked after
+     * every proposal and every restore.
+     */
+    private void runProposals(MultiTypeTree mtTree, List<Operator> operators,
+            int nSteps) throws Exception {
+
+        State state = new State();
+        state.initByName("stateNode", mtTree);
+
+        int sample = 0;
+        for (int step=0; step<nSteps; step++) {
+            for (Operator operator : operators) {
+                state.store(sample++);
+                MultiTypeTree treeCopy = mtTree.copy();
+
+                double logHR = operator.proposal();
+                if (logHR != Double.NEGATIVE_INFINITY)
+                    assertChangeIndexConsistent(mtTree);
+
+                if (logHR == Double.NEGATIVE_INFINITY
+                        || !mtTree.isValid()
+                        || Randomizer.nextBoolean()) {
+                    state.restore();
+                    assertTreesEqual(treeCopy, mtTree);
+                    assertChangeIndexConsistent(mtTree);
+                }
+
+                state.setEverythingDirty(false);
+            }
+        }
+    }
+
+    /**
+     * Assert that the change index agrees with a linear count over the
+     * branches, taken in node number order and skipping the root.
+     */
+    private void assertChangeIndexConsistent(MultiTypeTree mtTree) {
+        int changeNr = 0;
+        for (Node node : mtTree.getNodesAsArray()) {
+            if (node.isRoot())
+                continue;
+
+            MultiTypeNode mtNode = (MultiTypeNode)node;
+            for (int idx=0; idx<mtNode.getChangeCount(); idx++) {
+                assertSame(mtNode, mtTree.getChangeNode(changeNr));
+                assertEquals(idx, mtTree.getChangeIndex(changeNr));
+                changeNr += 1;
+            }
+        }
+        assertEquals(changeNr, mtTree.getTotalNumberOfChanges());
+    }
+
+    /**
+     * Assert that two trees have identical node numbering, topology,
+     * heights, types and type changes.
+     */
+    private void assertTreesEqual(MultiTypeTree expected, MultiTypeTree actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+
+        MultiTypeNode[] expectedNodes = new MultiTypeNode[expected.getNodeCount()];
+        MultiTypeNode[] actualNodes = new MultiTypeNode[actual.getNodeCount()];
+        collectNodes((MultiTypeNode)expected.getRoot(), expectedNodes);
+        collectNodes((MultiTypeNode)actual.getRoot(), actualNodes);
+
+        assertEquals(expected.getRoot().getNr(), actual.getRoot().getNr());
+        for (int nr=0; nr<expectedNodes.length; nr++) {
+            MultiTypeNode expectedNode = expectedNodes[nr];
+            MultiTypeNode actualNode = actualNodes[nr];
+
+            assertNotNull(actualNode);
+            assertSame(actualNode, actual.getNode(nr));
+            assertEquals(expectedNode.getHeight(), actualNode.getHeight(), 0.0);
+            assertEquals(expectedNode.getNodeType(), actualNode.getNodeType());
+            assertEquals(expectedNode.getID(), actualNode.getID());
+
+            if (expectedNode.isRoot())
+                assertTrue(actualNode.isRoot());
+            else
+                assertEquals(expectedNode.getParent().getNr(),
+                        actualNode.getParent().getNr());
+
+            assertEquals(expectedNode.getChildCount(), actualNode.getChildCount());
+            for (int i=0; i<expectedNode.getChildCount(); i++)
+                assertEquals(expectedNode.getChild(i).getNr(),
+                        actualNode.getChild(i).getNr());
+
+            assertEquals(expectedNode.getChangeCount(), actualNode.getChangeCount());
+            for (int idx=0; idx<expectedNode.getChangeCount(); idx++) {
+                assertEquals(expectedNode.getChangeType(idx),
+                        actualNode.getChangeType(idx));
+                assertEquals(expectedNode.getChangeTime(idx),
+                        actualNode.getChangeTime(idx), 0.0);
+            }
+        }
+    }
+
+    private void collectNodes(MultiTypeNode node, MultiTypeNode[] nodes) {
+        nodes[node.getNr()] = node;
+        for (Node child : node.getChildren())
+            collectNodes((MultiTypeNode)child, nodes);
+    }
+}
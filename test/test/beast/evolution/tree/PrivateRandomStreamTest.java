@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.RandomSource;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import multitypetree.operators.NodeShiftRetype;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that private random streams depend only on the master seed and
+ * the ID of the object using them, and not on the order in which objects
+ * are initialised or on use of the global generator.
+ *
+ * @author agent
+ */
+public class PrivateRandomStreamTest {
+
+    @Test
+    public void testForKey() throws Exception {
+        System.out.println("PrivateRandomStreamTest (forKey)");
+
+        Randomizer.setSeed(5);
+        double[] draws = getDraws(RandomSource.forKey("op"));
+
+        // Use of the global generator and of other streams in between
+        // must not matter:
+        Randomizer.nextDouble();
+        getDraws(RandomSource.forKey("other"));
+        assertArrayEquals(draws, getDraws(RandomSource.forKey("op")), 0.0);
+
+        assertFalse(Arrays.equals(draws,
+                getDraws(RandomSource.forKey("op2"))));
+
+        Randomizer.setSeed(6);
+        assertFalse(Arrays.equals(draws,
+                getDraws(RandomSource.forKey("op"))));
+    }
+
+    @Test
+    public void testOperators() throws Exception {
+        System.out.println("PrivateRandomStreamTest (operators)");
+
+        List<String> trees = runOperator("NSR", false);
+        assertEquals(trees, runOperator("NSR", true));
+        assertFalse(trees.equals(runOperator("NSR2", false)));
+    }
+
+    @Test
+    public void testSimulators() throws Exception {
+        System.out.println("PrivateRandomStreamTest (simulators)");
+
+        MigrationModel migModel = getMigrationModel();
+
+        Randomizer.setSeed(5);
+        MultiTypeTree treeA = simulateTree(migModel, "sim");
+        MultiTypeTree otherA = simulateTree(migModel, "other");
+
+        Randomizer.setSeed(5);
+        MultiTypeTree otherB = simulateTree(migModel, "other");
+        Randomizer.nextDouble();
+        MultiTypeTree treeB = simulateTree(migModel, "sim");
+
+        assertEquals(treeA.toString(), treeB.toString());
+        assertEquals(otherA.toString(), otherB.toString());
+        assertFalse(treeA.toString().equals(otherA.toString()));
+    }
+
+    /**
+     * Apply operator with the given ID to a tree, recording the tree after
+     * each step.  A second operator with a private stream is applied to
+     * another tree between each step and, if initOtherFirst is true, is
+     * initialised before the first.
+     */
+    private List<String> runOperator(String id, boolean initOtherFirst)
+            throws Exception {
+        Randomizer.setSeed(9);
+        MigrationModel migModel = getMigrationModel();
+
+        MultiTypeTree mtTree = simulateTree(migModel, "tree");
+        MultiTypeTree otherTree = simulateTree(migModel, "otherTree");
+
+        Operator operator = new NodeShiftRetype();
+        operator.setID(id);
+        Operator otherOperator = new NodeShiftRetype();
+        otherOperator.setID("other");
+
+        if (initOtherFirst) {
+            initOperator(otherOperator, otherTree, migModel);
+            Randomizer.nextDouble();
+            initOperator(operator, mtTree, migModel);
+        } else {
+            initOperator(operator, mtTree, migModel);
+            initOperator(otherOperator, otherTree, migModel);
+        }
+
+        State state = new State();
+        state.initByName("stateNode", mtTree);
+        State otherState = new State();
+        otherState.initByName("stateNode", otherTree);
+
+        List<String> trees = new ArrayList<>();
+        for (int step=0; step<100; step++) {
+            applyProposal(operator, mtTree, state, step);
+            trees.add(mtTree.toString());
+
+            applyProposal(otherOperator, otherTree, otherState, step);
+        }
+
+        return trees;
+    }
+
+    /**
+     * Apply a proposal, keeping it unless it fails or leaves an invalid
+     * tree.
+     */
+    private void applyProposal(Operator operator, MultiTypeTree mtTree,
+            State state, int sample) {
+        state.store(sample);
+        double logHR = operator.proposal();
+        if (logHR == Double.NEGATIVE_INFINITY || !mtTree.isValid())
+            state.restore();
+        state.setEverythingDirty(false);
+    }
+
+    private void initOperator(Operator operator, MultiTypeTree mtTree,
+            MigrationModel migModel) throws Exception {
+        operator.initByName(
+                "weight", 1.0,
+                "multiTypeTree", mtTree,
+                "migrationModel", migModel,
+                "privateRandomStream", true);
+    }
+
+    private MultiTypeTree simulateTree(MigrationModel migModel, String id)
+            throws Exception {
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.setID(id);
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", "1 0 0 1 1 0 1 0",
+                "privateRandomStream", true);
+        return mtTree;
+    }
+
+    private MigrationModel getMigrationModel() throws Exception {
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.2 0.1"),
+                "popSizes", new RealParameter("7.0 5.0"));
+        return migModel;
+    }
+
+    private double[] getDraws(RandomSource random) {
+        double[] draws = new double[20];
+        for (int i=0; i<draws.length; i++)
+            draws[i] = random.nextDouble();
+        return draws;
+    }
+}
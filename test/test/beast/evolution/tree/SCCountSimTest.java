@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MigrationModelSnapshot;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.RandomSource;
+import beast.evolution.tree.StructuredCoalescentCountSimulator;
+import beast.evolution.tree.StructuredCoalescentSimulator;
+import beast.math.statistic.DiscreteStatistics;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the lineage count simulator produces the same distributions
+ * of root height and type change count as the full tree simulator.
+ *
+ * @author agent
+ */
+public class SCCountSimTest {
+
+    @Test
+    public void test() throws Exception {
+        System.out.println("SCCountSim test");
+
+        RealParameter rateMatrix = new RealParameter("0.1 0.3 0.2 0.05 0.1 0.2");
+        RealParameter popSizes = new RealParameter("7.0 3.0 5.0");
+        MigrationModel migrationModel = new MigrationModel();
+        migrationModel.initByName(
+                "rateMatrix", rateMatrix,
+                "popSizes", popSizes);
+        MigrationModelSnapshot model = migrationModel.getSnapshot();
+
+        int[] leafTypes = {0, 0, 1, 2, 2, 1};
+        double[] leafTimes = {0.0, 0.0, 0.5, 0.0, 2.0, 1.0};
+
+        int reps = 20000;
+        int nTypes = migrationModel.getNTypes();
+
+        // Full simulator:
+        StructuredCoalescentSimulator simulator =
+                new StructuredCoalescentSimulator(model);
+        simulator.setNodeReuse(true);
+        RandomSource random = RandomSource.fromStream(new SplittableRandom(42));
+        double[] heights = new double[reps];
+        double[] changes = new double[reps];
+        for (int i=0; i<reps; i++) {
+            MultiTypeNode root = simulator.simulate(leafTypes, leafTimes, null, random);
+            heights[i] = root.getHeight();
+            for (int type=0; type<nTypes; type++)
+                changes[i] += simulator.getChangeCount(type);
+        }
+
+        // Lineage count simulator:
+        StructuredCoalescentCountSimulator countSimulator =
+                new StructuredCoalescentCountSimulator(model, leafTypes, leafTimes);
+        random = RandomSource.fromStream(new SplittableRandom(43));
+        double[] countHeights = new double[reps];
+        double[] countChanges = new double[reps];
+        for (int i=0; i<reps; i++) {
+            countSimulator.simulate(random);
+            countHeights[i] = countSimulator.getRootHeight();
+            for (int type=0; type<nTypes; type++)
+                countChanges[i] += countSimulator.getChangeCount(type);
+        }
+
+        assertSameMoments(heights, countHeights);
+        assertSameMoments(changes, countChanges);
+    }
+
+    /**
+     * Assert that two samples have means within five standard errors of
+     * one another and variances within 10% of one another.
+     */
+    private void assertSameMoments(double[] sample1, double[] sample2) {
+        double mean1 = DiscreteStatistics.mean(sample1);
+        double mean2 = DiscreteStatistics.mean(sample2);
+        double var1 = DiscreteStatistics.variance(sample1);
+        double var2 = DiscreteStatistics.variance(sample2);
+
+        System.out.format("mean: %g vs %g, var: %g vs %g\n",
+                mean1, mean2, var1, var2);
+
+        double stdErr = Math.sqrt(var1/sample1.length + var2/sample2.length);
+        assertEquals(mean1, mean2, 5*stdErr);
+        assertEquals(var1, var2, 0.1*Math.max(var1, var2));
+    }
+}
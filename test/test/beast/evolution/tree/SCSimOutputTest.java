@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.MultiTypeTreeFromNewick;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.RandomSource;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.evolution.tree.StructuredCoalescentSimulator;
+import beast.util.Randomizer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NEXUS output written by StructuredCoalescentMultiTypeTree,
+ * including batches of trees simulated using recycled nodes.
+ *
+ * @author agent
+ */
+public class SCSimOutputTest {
+
+    static final String LEAF_TYPES = "1 0 0 1 1 0 1 0";
+    static final int N_TREES = 20;
+
+    /**
+     * A single tree must be written exactly as it was before batch output
+     * was introduced, i.e. using the flattened tree's sorted Newick string.
+     */
+    @Test
+    public void testSingleTree() throws Exception {
+        System.out.println("SCSimOutputTest (single tree)");
+
+        Randomizer.setSeed(13);
+
+        File file = File.createTempFile("SCSimOutputTest", ".nex");
+        file.deleteOnExit();
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", getMigrationModel(),
+                "leafTypes", LEAF_TYPES,
+                "outputFileName", file.getPath());
+
+        String nl = System.lineSeparator();
+        String expected = "#nexus\nbegin trees;" + nl
+                + "tree TREE_1 = "
+                + mtTree.getFlattenedTree(true).getRoot().toSortedNewick(new int[1], true)
+                + ";" + nl
+                + "end;" + nl;
+
+        assertEquals(expected, readFile(file));
+    }
+
+    /**
+     * Trees written in a batch, plain and compressed, must be identical to
+     * those produced by a simulator which does not recycle nodes when
+     * drawing from the same random stream, and must parse to valid trees
+     * with the correct leaf types.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        System.out.println("SCSimOutputTest (batch)");
+
+        Randomizer.setSeed(13);
+        MigrationModel migModel = getMigrationModel();
+
+        // Trees simulated on fresh nodes from the stream used by the
+        // tree with ID "sim":
+        ExposedTree refTree = new ExposedTree();
+        refTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", LEAF_TYPES);
+
+        String[] typeStrs = LEAF_TYPES.split(" ");
+        int nLeaves = typeStrs.length;
+        int[] types = new int[nLeaves];
+        double[] times = new double[nLeaves];
+        String[] names = new String[nLeaves];
+        for (int l=0; l<nLeaves; l++) {
+            types[l] = Integer.parseInt(typeStrs[l]);
+            names[l] = String.valueOf(l);
+        }
+
+        StructuredCoalescentSimulator simulator =
+                new StructuredCoalescentSimulator(migModel.getSnapshot());
+        RandomSource random = RandomSource.forKey("sim");
+        List<String> expectedNewicks = new ArrayList<>();
+        for (int i=0; i<N_TREES; i++) {
+            MultiTypeNode root = simulator.simulate(types, times, names, random);
+            expectedNewicks.add(refTree.typedNewick(root,
+                    simulator.getNodes(), simulator.getNodeCount()));
+        }
+
+        for (String suffix : new String[] {".nex", ".nex.gz"}) {
+            File file = File.createTempFile("SCSimOutputTest", suffix);
+            file.deleteOnExit();
+
+            MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+            mtTree.setID("sim");
+            mtTree.initByName(
+                    "typeLabel", "deme",
+                    "migrationModel", migModel,
+                    "leafTypes", LEAF_TYPES,
+                    "outputFileName", file.getPath(),
+                    "nTrees", N_TREES,
+                    "privateRandomStream", true);
+
+            String[] lines = readFile(file).split("\\r?\\n");
+            assertEquals(N_TREES + 3, lines.length);
+            assertEquals("#nexus", lines[0]);
+            assertEquals("begin trees;", lines[1]);
+            assertEquals("end;", lines[N_TREES + 2]);
+
+            for (int i=0; i<N_TREES; i++) {
+                String prefix = "tree TREE_" + (i+1) + " = ";
+                String line = lines[i+2];
+                assertTrue(line.startsWith(prefix));
+                assertTrue(line.endsWith(";"));
+
+                String newick = line.substring(prefix.length(), line.length()-1);
+                assertEquals(expectedNewicks.get(i), newick);
+                assertTreeValid(newick, typeStrs);
+            }
+
+            // Retained tree is the last one written:
+            assertEquals(expectedNewicks.get(N_TREES-1), mtTree.toString());
+            assertTrue(mtTree.isValid());
+        }
+    }
+
+    /**
+     * Assert that Newick string describes a valid binary multi-type tree
+     * with the given leaf types.  Leaves are labelled by leaf number + 1.
+     */
+    private void assertTreeValid(String newick, String[] typeStrs) throws Exception {
+        MultiTypeTreeFromNewick mtTree = new MultiTypeTreeFromNewick();
+        mtTree.initByName(
+                "newick", newick,
+                "typeLabel", "deme");
+
+        int nLeaves = typeStrs.length;
+        assertEquals(nLeaves, mtTree.getLeafNodeCount());
+        assertEquals(2*nLeaves-1, mtTree.getNodeCount());
+        assertTrue(mtTree.isValid());
+
+        boolean[] seen = new boolean[nLeaves];
+        for (Node node : mtTree.getNodesAsArray()) {
+            if (node.isLeaf()) {
+                int l = Integer.parseInt(node.getID())-1;
+                assertFalse(seen[l]);
+                seen[l] = true;
+                assertEquals(typeStrs[l], mtTree.getTypeString(
+                        ((MultiTypeNode)node).getNodeType()));
+            } else
+                assertEquals(2, node.getChildCount());
+        }
+    }
+
+    private MigrationModel getMigrationModel() throws Exception {
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.2 0.1"),
+                "popSizes", new RealParameter("7.0 5.0"));
+        return migModel;
+    }
+
+    private String readFile(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream istream = file.getName().endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(file))
+                : new FileInputStream(file)) {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = istream.read(buf)) >= 0)
+                bytes.write(buf, 0, n);
+        }
+
+        return bytes.toString();
+    }
+
+    /**
+     * Tree exposing its typed Newick writer for trees held elsewhere.
+     */
+    private static class ExposedTree extends StructuredCoalescentMultiTypeTree {
+        String typedNewick(MultiTypeNode treeRoot, Node[] nodes, int nNodes) {
+            return getTypedNewick(treeRoot, nodes, nNodes).toString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jblas.DoubleMatrix;
+import org.jblas.MatrixFunctions;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests transition probabilities computed from the eigendecomposition of
+ * the migration rate matrix against the matrix exponential.
+ *
+ * @author agent
+ */
+public class TransitionProbTest {
+
+    static final double[] TIMES = {0.0, 0.01, 0.3, 1.0, 2.5, 10.0};
+
+    @Test
+    public void testSymmetric() throws Exception {
+        System.out.println("TransitionProbTest (symmetric)");
+
+        MigrationModel migModel = getModel("0.3 0.1 0.05 0.2 0.4 0.15");
+        assertMatchesExpm(migModel, true);
+    }
+
+    @Test
+    public void testAsymmetric() throws Exception {
+        System.out.println("TransitionProbTest (asymmetric)");
+
+        // Predominantly cyclic migration 0->1->2->0 gives complex
+        // eigenvalues:
+        MigrationModel migModel = getModel("1.0 0.01 0.01 1.0 1.0 0.01");
+        assertMatchesExpm(migModel, false);
+    }
+
+    @Test
+    public void testNearDefective() throws Exception {
+        System.out.println("TransitionProbTest (near-defective)");
+
+        // Migration 0->1->2 only: defective, and close to it.
+        assertMatchesExpm(getModel("1.0 0.0 0.0 1.0 0.0 0.0"), false);
+        assertMatchesExpm(getModel("1.0 0.0 0.0 1.000001 0.0 0.0"), false);
+    }
+
+    /**
+     * Elements of the eigensystem are evaluated from several threads at
+     * once, and must agree with those computed on a single thread.
+     */
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        System.out.println("TransitionProbTest (concurrent)");
+
+        MigrationModel migModel = getModel("1.0 0.01 0.01 1.0 1.0 0.01");
+        int nTypes = migModel.getNTypes();
+
+        int nTimes = 200;
+        double[][][] expected = new double[nTimes][nTypes][nTypes];
+        for (int t=0; t<nTimes; t++)
+            for (int i=0; i<nTypes; i++)
+                for (int j=0; j<nTypes; j++)
+                    expected[t][i][j] = migModel.getTransitionProb(i, j, 0.05*t, false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int thread=0; thread<4; thread++) {
+                final int offset = thread;
+                futures.add(executor.submit(() -> {
+                    boolean agree = true;
+                    for (int rep=0; rep<100; rep++) {
+                        for (int t=0; t<nTimes; t++) {
+                            int tt = (t + 37*offset) % nTimes;
+                            for (int i=0; i<nTypes; i++)
+                                for (int j=0; j<nTypes; j++)
+                                    agree &= expected[tt][i][j]
+                                            == migModel.getTransitionProb(i, j, 0.05*tt, false);
+                        }
+                    }
+                    return agree;
+                }));
+            }
+
+            for (Future<Boolean> future : futures)
+                assertTrue(future.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MigrationModel getModel(String rates) throws Exception {
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter(rates),
+                "popSizes", new RealParameter("7.0 5.0 3.0"));
+        return migModel;
+    }
+
+    private void assertMatchesExpm(MigrationModel migModel, boolean symmetric) {
+        int nTypes = migModel.getNTypes();
+        DoubleMatrix Q = migModel.getQ(symmetric);
+
+        for (double L : TIMES) {
+            DoubleMatrix expected = MatrixFunctions.expm(Q.mul(L));
+            DoubleMatrix P = migModel.getTransitionMatrix(L, symmetric);
+
+            for (int i=0; i<nTypes; i++) {
+                for (int j=0; j<nTypes; j++) {
+                    assertEquals(expected.get(i, j),
+                            migModel.getTransitionProb(i, j, L, symmetric), 1e-8);
+                    assertEquals(expected.get(i, j), P.get(i, j), 1e-8);
+                }
+            }
+        }
+    }
+}
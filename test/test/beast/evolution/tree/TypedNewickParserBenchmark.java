@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.Node;
+import beast.util.Randomizer;
+import beast.util.TreeParser;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark comparing reconstruction of a multi-type tree from its state
+ * file representation using TreeParser and initFromFlatTree() with the
+ * direct typed Newick parser.  Not a unit test: run main() directly.
+ * Equivalence of the two is tested by TypedNewickParserTest.
+ *
+ * @author agent
+ */
+public class TypedNewickParserBenchmark {
+
+    static final int N_TIPS = 10000;
+    static final int CHANGES_PER_BRANCH = 50;
+    static final int N_TYPES = 4;
+
+    /**
+     * Assemble a random binary tree with the given number of tips, placing
+     * a fixed number of type changes at uniformly distributed times on
+     * each branch.
+     *
+     * @param nTips number of tips
+     * @return root of random tree
+     */
+    static MultiTypeNode randomTree(int nTips) {
+
+        List<MultiTypeNode> lineages = new ArrayList<>();
+        for (int i=0; i<nTips; i++) {
+            MultiTypeNode leaf = new MultiTypeNode();
+            leaf.setNr(i);
+            leaf.setID(String.valueOf(i));
+            leaf.setHeight(0.0);
+            lineages.add(leaf);
+        }
+
+        double t = 0.0;
+        int nextNr = nTips;
+        while (lineages.size()>1) {
+            t += Randomizer.nextExponential(0.5*lineages.size());
+
+            MultiTypeNode parent = new MultiTypeNode();
+            parent.setNr(nextNr);
+            parent.setID(String.valueOf(nextNr));
+            nextNr += 1;
+            parent.setHeight(t);
+            parent.addChild(lineages.remove(Randomizer.nextInt(lineages.size())));
+            parent.addChild(lineages.remove(Randomizer.nextInt(lineages.size())));
+            lineages.add(parent);
+        }
+
+        MultiTypeNode root = lineages.get(0);
+        root.setNodeType(Randomizer.nextInt(N_TYPES));
+        assignTypes(root);
+
+        return root;
+    }
+
+    static void assignTypes(MultiTypeNode node) {
+        for (Node child : node.getChildren()) {
+            MultiTypeNode mtChild = (MultiTypeNode)child;
+
+            double[] times = new double[CHANGES_PER_BRANCH];
+            for (int i=0; i<times.length; i++)
+                times[i] = child.getHeight()
+                        + Randomizer.nextDouble()*(node.getHeight()-child.getHeight());
+            Arrays.sort(times);
+
+            // Walk down the branch choosing the type below each change:
+            int type = node.getNodeType();
+            for (int i=times.length-1; i>=0; i--) {
+                mtChild.insertChange(0, type, times[i]);
+                type = (type + 1 + Randomizer.nextInt(N_TYPES-1)) % N_TYPES;
+            }
+            mtChild.setNodeType(type);
+
+            assignTypes(mtChild);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Randomizer.setSeed(42);
+
+        MultiTypeTree mtTree = new MultiTypeTree();
+        mtTree.initByName("initial", new MultiTypeTree(randomTree(N_TIPS)));
+
+        // Same representation as written to the state file:
+        String newick = mtTree.getFlattenedTree(false).getRoot()
+                .toShortNewick(true).replace("&", "");
+
+        System.out.println("Tips: " + mtTree.getLeafNodeCount()
+                + ", changes: " + mtTree.getTotalNumberOfChanges()
+                + ", string length: " + newick.length());
+
+        MultiTypeTree flatPathTree = mtTree.copy();
+        MultiTypeTree directPathTree = mtTree.copy();
+
+        int reps = 5;
+        for (int rep=-1; rep<reps; rep++) {
+            long start = System.nanoTime();
+            TreeParser parser = new TreeParser();
+            parser.initByName(
+                    "IsLabelledNewick", false,
+                    "offset", 0,
+                    "adjustTipHeights", false,
+                    "singlechild", true,
+                    "newick", newick);
+            flatPathTree.initFromFlatTree(parser, true);
+            long flatTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            directPathTree.initFromTypedNewick(newick, 0);
+            long directTime = System.nanoTime() - start;
+
+            if (rep>=0)
+                System.out.format("TreeParser + initFromFlatTree: %.1f ms, "
+                        + "initFromTypedNewick: %.1f ms\n",
+                        flatTime*1e-6, directTime*1e-6);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.evolution.tree.MultiTypeNode;
+import beast.evolution.tree.MultiTypeTree;
+import beast.util.Randomizer;
+import beast.util.TreeParser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that initFromTypedNewick() reconstructs the same tree from a state
+ * file string as TreeParser followed by initFromFlatTree().
+ *
+ * @author agent
+ */
+public class TypedNewickParserTest {
+
+    @Test
+    public void testAgainstFlatTreePath() throws Exception {
+        System.out.println("TypedNewickParserTest");
+
+        for (int rep=0; rep<10; rep++) {
+            Randomizer.setSeed(rep+1);
+
+            MultiTypeTree mtTree = new MultiTypeTree();
+            mtTree.initByName("initial", new MultiTypeTree(
+                    TypedNewickParserBenchmark.randomTree(20)));
+
+            // Same representation as written to the state file:
+            String newick = mtTree.getFlattenedTree(false).getRoot()
+                    .toShortNewick(true).replace("&", "");
+
+            MultiTypeTree flatPathTree = mtTree.copy();
+            TreeParser parser = new TreeParser();
+            parser.initByName(
+                    "IsLabelledNewick", false,
+                    "offset", 0,
+                    "adjustTipHeights", false,
+                    "singlechild", true,
+                    "newick", newick);
+            flatPathTree.initFromFlatTree(parser, true);
+
+            MultiTypeTree directPathTree = mtTree.copy();
+            directPathTree.initFromTypedNewick(newick, 0);
+
+            assertEquals(flatPathTree.getNodeCount(), directPathTree.getNodeCount());
+            assertEquals(flatPathTree.getRoot().getNr(), directPathTree.getRoot().getNr());
+            for (int nr=0; nr<flatPathTree.getNodeCount(); nr++) {
+                MultiTypeNode flatNode = (MultiTypeNode)flatPathTree.getNode(nr);
+                MultiTypeNode directNode = (MultiTypeNode)directPathTree.getNode(nr);
+
+                assertEquals(flatNode.getHeight(), directNode.getHeight(), 0.0);
+                assertEquals(flatNode.getNodeType(), directNode.getNodeType());
+                if (!flatNode.isRoot())
+                    assertEquals(flatNode.getParent().getNr(),
+                            directNode.getParent().getNr());
+
+                assertEquals(flatNode.getChangeCount(), directNode.getChangeCount());
+                for (int idx=0; idx<flatNode.getChangeCount(); idx++) {
+                    assertEquals(flatNode.getChangeType(idx),
+                            directNode.getChangeType(idx));
+                    assertEquals(flatNode.getChangeTime(idx),
+                            directNode.getChangeTime(idx), 0.0);
+                }
+            }
+
+            assertEquals(flatPathTree.getFlattenedTree(false).getRoot().toShortNewick(true),
+                    directPathTree.getFlattenedTree(false).getRoot().toShortNewick(true));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package test.beast.evolution.tree;
+
+import beast.core.parameter.RealParameter;
+import beast.evolution.tree.MigrationModel;
+import beast.evolution.tree.MultiTypeTree;
+import beast.evolution.tree.MultiTypeTreeFromNewick;
+import beast.evolution.tree.StructuredCoalescentMultiTypeTree;
+import beast.util.Randomizer;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that MultiTypeTree.getTypedNewick() reproduces the Newick string
+ * of the flattened tree.
+ *
+ * @author agent
+ */
+public class TypedNewickTest {
+
+    @Test
+    public void testFixedTrees() throws Exception {
+        System.out.println("TypedNewickTest (fixed trees)");
+
+        String[] newickStrs = {
+            // Zero-change branches throughout, leaf directly below root:
+            "(A[&state=0]:1.0,(B[&state=0]:0.5,C[&state=0]:0.5)[&state=0]:0.5)[&state=0]:0.0;",
+
+            // Changes on a leaf branch directly below the root and on an
+            // internal branch:
+            "((A[&state=1]:0.25)[&state=0]:1.0,((B[&state=1]:0.5,C[&state=1]:0.5)"
+                    + "[&state=1]:0.25)[&state=0]:0.5)[&state=0]:0.0;",
+
+            // Mixture of branches with and without changes:
+            "(((A[&state=1]:0.25)[&state=0]:0.25,B[&state=0]:0.5)[&state=0]:1.5,"
+                    + "(C[&state=0]:1.0,D[&state=0]:1.0)[&state=0]:1.0)[&state=0]:0.0;"
+        };
+
+        for (String newickStr : newickStrs) {
+            MultiTypeTreeFromNewick mtTree = new MultiTypeTreeFromNewick();
+            mtTree.initByName(
+                    "newick", newickStr,
+                    "typeLabel", "state");
+
+            assertTypedNewickMatches(mtTree);
+        }
+    }
+
+    @Test
+    public void testSimulatedTrees() throws Exception {
+        System.out.println("TypedNewickTest (simulated trees)");
+
+        Randomizer.setSeed(5);
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.2 0.1"),
+                "popSizes", new RealParameter("7.0 5.0"));
+
+        for (int rep=0; rep<100; rep++) {
+            MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+            mtTree.initByName(
+                    "typeLabel", "deme",
+                    "migrationModel", migModel,
+                    "leafTypes", "1 0 0 1 1 0 1 0 0 1");
+
+            assertTypedNewickMatches(mtTree);
+        }
+    }
+
+    /**
+     * Trees are logged in chunks, so check log output for a tree whose
+     * Newick string spans several of them.
+     */
+    @Test
+    public void testLogOutput() throws Exception {
+        System.out.println("TypedNewickTest (log output)");
+
+        Randomizer.setSeed(7);
+
+        MigrationModel migModel = new MigrationModel();
+        migModel.initByName(
+                "rateMatrix", new RealParameter("0.2 0.1"),
+                "popSizes", new RealParameter("7.0 5.0"));
+
+        StringBuilder leafTypes = new StringBuilder();
+        for (int l=0; l<500; l++)
+            leafTypes.append(" ").append(l%2);
+
+        MultiTypeTree mtTree = new StructuredCoalescentMultiTypeTree();
+        mtTree.initByName(
+                "typeLabel", "deme",
+                "migrationModel", migModel,
+                "leafTypes", leafTypes.toString().trim());
+
+        String newick = mtTree.getTypedNewick().toString();
+        assertTrue(newick.length() > 2*4096);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream printStream = new PrintStream(out);
+        mtTree.log(5, printStream);
+        printStream.flush();
+
+        assertEquals("tree STATE_5 = " + newick + ";", out.toString());
+    }
+
+    private void assertTypedNewickMatches(MultiTypeTree mtTree) {
+        String expected = mtTree.getFlattenedTree(true).getRoot()
+                .toSortedNewick(new int[1], true);
+        assertEquals(expected, mtTree.getTypedNewick().toString());
+    }
+}